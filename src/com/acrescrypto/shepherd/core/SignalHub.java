@@ -122,6 +122,17 @@ public class SignalHub {
 		return handle(signal, expectedArgument, (arg)->callback.call());
 	}
 	
+	/** Publish the arguments of a signal to Flow subscribers, buffering at most `capacity`
+	 * arguments per subscriber. See SignalPublisher. */
+	public <T> SignalPublisher<T> publisher(String signal, int capacity) {
+		return new SignalPublisher<>(this, signal, capacity);
+	}
+	
+	/** Generate a signal for each item from a Flow publisher. See SignalSubscriber. */
+	public <T> SignalSubscriber<T> subscriber(String signal) {
+		return new SignalSubscriber<>(this, signal);
+	}
+	
 	public Deque<SignalRegistration> handlersForSignal(String signal) {
 		if(!registrations.containsKey(signal)) return new ConcurrentLinkedDeque<>();
 		
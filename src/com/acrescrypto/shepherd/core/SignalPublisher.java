@@ -0,0 +1,118 @@
+package com.acrescrypto.shepherd.core;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acrescrypto.shepherd.core.SignalHub.SignalRegistration;
+
+/** Publishes the arguments of a signal to Flow subscribers. Signals cannot be slowed down,
+ * so each subscriber gets a buffer of at most `capacity` arguments awaiting demand; once it
+ * is full, the oldest argument is dropped to make room and counted in dropped(). Signals
+ * without an argument are skipped, since Flow does not permit null items.
+ */
+public class SignalPublisher<T> implements Flow.Publisher<T> {
+	protected class SignalSubscription implements Flow.Subscription {
+		protected Flow.Subscriber<? super T>  subscriber;
+		protected volatile SignalRegistration registration;
+		protected ArrayDeque<T>               buffer   = new ArrayDeque<>();
+		protected AtomicLong                  demand   = new AtomicLong();
+		protected AtomicInteger               draining = new AtomicInteger();
+		protected volatile boolean            cancelled;
+		
+		protected SignalSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+		
+		@Override
+		public void request(long n) {
+			if(n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("Subscription requested " + n + " items"));
+				return;
+			}
+			
+			demand.accumulateAndGet(n, (current, added)->{
+				long sum = current + added;
+				return sum < 0 ? Long.MAX_VALUE : sum;
+			});
+			drain();
+		}
+		
+		@Override
+		public void cancel() {
+			cancelled = true;
+			if(registration != null) registration.cancel();
+		}
+		
+		@SuppressWarnings("unchecked")
+		protected void offer(Object argument) {
+			if(argument == null) return;
+			
+			synchronized(buffer) {
+				if(buffer.size() >= capacity) {
+					buffer.poll();
+					dropped.incrementAndGet();
+				}
+				
+				buffer.add((T) argument);
+			}
+			
+			drain();
+		}
+		
+		protected void drain() {
+			if(draining.getAndIncrement() != 0) return;
+			
+			do {
+				while(!cancelled && demand.get() > 0) {
+					T item;
+					synchronized(buffer) {
+						item = buffer.poll();
+					}
+					
+					if(item == null) break;
+					demand.decrementAndGet();
+					subscriber.onNext(item);
+				}
+			} while(draining.decrementAndGet() != 0);
+		}
+	}
+	
+	protected SignalHub  hub;
+	protected String     signal;
+	protected int        capacity;
+	protected AtomicLong dropped = new AtomicLong();
+	
+	public SignalPublisher(SignalHub hub, String signal, int capacity) {
+		this.hub      = hub;
+		this.signal   = signal;
+		this.capacity = Math.max(1, capacity);
+	}
+	
+	public String signal() {
+		return signal;
+	}
+	
+	public int capacity() {
+		return capacity;
+	}
+	
+	/** Number of arguments discarded because a subscriber's buffer was full. */
+	public long dropped() {
+		return dropped.get();
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		SignalSubscription subscription = new SignalSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		if(subscription.cancelled) return;
+		
+		subscription.registration = hub.handle(signal, (message)->subscription.offer(message.argument()));
+		
+		// a cancel() racing with registration may have missed it, so drop it ourselves
+		if(subscription.cancelled) subscription.registration.cancel();
+	}
+}
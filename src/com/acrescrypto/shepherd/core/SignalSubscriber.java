@@ -0,0 +1,89 @@
+package com.acrescrypto.shepherd.core;
+
+import java.util.concurrent.Flow;
+
+/** Generates a signal for each item received from a Flow publisher, with the item as its
+ * argument. Signal handlers run synchronously, so items are requested a batch at a time
+ * and replaced one-for-one as each is signalled. If a completion signal is set, it is
+ * generated when the publisher completes. Errors from the publisher are passed to the
+ * Program's exception handler.
+ */
+public class SignalSubscriber<T> implements Flow.Subscriber<T> {
+	public final static int DEFAULT_BATCH = 16;
+	
+	protected SignalHub         hub;
+	protected String            signal,
+	                            completionSignal;
+	protected int               batch = DEFAULT_BATCH;
+	protected Flow.Subscription subscription;
+	protected volatile boolean  complete;
+	
+	public SignalSubscriber(SignalHub hub, String signal) {
+		this.hub    = hub;
+		this.signal = signal;
+	}
+	
+	public String signal() {
+		return signal;
+	}
+	
+	public int batch() {
+		return batch;
+	}
+	
+	/** Number of items requested ahead of time. Set before subscribing. */
+	public SignalSubscriber<T> batch(int batch) {
+		this.batch = Math.max(1, batch);
+		return this;
+	}
+	
+	public String completionSignal() {
+		return completionSignal;
+	}
+	
+	/** Signal to generate, without an argument, when the publisher completes. */
+	public SignalSubscriber<T> completionSignal(String completionSignal) {
+		this.completionSignal = completionSignal;
+		return this;
+	}
+	
+	/** True once the publisher has completed or failed. */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/** Stop receiving items. */
+	public SignalSubscriber<T> cancel() {
+		if(subscription != null) subscription.cancel();
+		return this;
+	}
+	
+	@Override
+	public synchronized void onSubscribe(Flow.Subscription subscription) {
+		if(this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		
+		this.subscription = subscription;
+		subscription.request(batch);
+	}
+	
+	@Override
+	public void onNext(T item) {
+		hub.signal(signal, item);
+		subscription.request(1);
+	}
+	
+	@Override
+	public void onError(Throwable throwable) {
+		complete = true;
+		hub.program().exception(throwable);
+	}
+	
+	@Override
+	public void onComplete() {
+		complete = true;
+		if(completionSignal != null) hub.signal(completionSignal);
+	}
+}
@@ -0,0 +1,158 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+
+/** Finished and cancelled state of a TaskSet, including state inherited from its
+ * ancestors. Changes are pushed down to child tokens as they happen, so checking whether
+ * a running set is finished or cancelled is a single volatile read no matter how deep the
+ * TaskSet tree is.
+ *
+ * Children register with their parent when attached, and the parent holds them strongly
+ * so their listeners fire however else they are referenced. A child leaves its parent
+ * once it is finished or cancelled itself, so finished children of a long-lived set do
+ * not accumulate; a cancellation of an ancestor after that point is read through the
+ * parent chain instead of being pushed down.
+ */
+public class CancellationToken {
+	protected volatile CancellationToken parent;
+	protected volatile boolean           ownFinished,
+	                                     ownCancelled,
+	                                     finished,
+	                                     cancelled;
+	protected Set<CancellationToken>     children = new HashSet<>();
+	protected VoidCallback               onFinished;
+	
+	public CancellationToken() {
+	}
+	
+	/** Construct a token that invokes a callback each time it becomes finished. */
+	public CancellationToken(VoidCallback onFinished) {
+		this.onFinished = onFinished;
+	}
+	
+	public CancellationToken parent() {
+		return parent;
+	}
+	
+	/** Attach this token beneath a new parent, or detach it if the parent is null. The
+	 * token immediately takes on the parent's state. */
+	public CancellationToken parent(CancellationToken parent) {
+		CancellationToken old = this.parent;
+		if(old == parent) return this;
+		
+		for(CancellationToken pp = parent; pp != null; pp = pp.parent) {
+			if(pp == this) throw new RuntimeException("Cannot attach a cancellation token beneath itself");
+		}
+		
+		if(old != null) old.removeChild(this);
+		this.parent = parent;
+		
+		// register before reading the parent's state, so a concurrent finish of the parent
+		// either sees us as a child or is seen by our refresh
+		if(parent != null) parent.addChild(this);
+		refresh();
+		
+		// finished tokens don't stay registered; see finish()
+		if(parent != null && ownFinished) parent.removeChild(this);
+		
+		return this;
+	}
+	
+	/** True if this token or any ancestor is finished or cancelled. */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/** True if this token or any ancestor is cancelled. */
+	public boolean isCancelled() {
+		if(cancelled) return true;
+		
+		// a finished token may have left its parent, so ancestors cancelled since then
+		// have not pushed their state to us
+		CancellationToken pp = parent;
+		return finished && pp != null && pp.isCancelled();
+	}
+	
+	/** Mark this token and all its descendants finished. */
+	public CancellationToken finish() {
+		ownFinished = true;
+		refresh();
+		detach();
+		return this;
+	}
+	
+	/** Mark this token and all its descendants cancelled and finished. */
+	public CancellationToken cancel() {
+		ownCancelled = ownFinished = true;
+		refresh();
+		detach();
+		return this;
+	}
+	
+	/** Number of child tokens currently registered to receive updates from this token. */
+	public int numChildren() {
+		synchronized(children) {
+			return children.size();
+		}
+	}
+	
+	protected void addChild(CancellationToken child) {
+		synchronized(children) {
+			children.add(child);
+		}
+	}
+	
+	protected void removeChild(CancellationToken child) {
+		synchronized(children) {
+			children.remove(child);
+		}
+	}
+	
+	/** Stop receiving updates from our parent once we are finished on our own account,
+	 * keeping the parent pointer so isCancelled() can still consult it. */
+	protected void detach() {
+		CancellationToken pp = parent;
+		if(pp != null) pp.removeChild(this);
+	}
+	
+	/** Recompute our state from our own flags and our parent's, and push any change to
+	 * our children. Serialized per token, so the last refresh always sees the latest
+	 * state of the parent. */
+	protected void refresh() {
+		boolean becameFinished;
+		
+		synchronized(this) {
+			CancellationToken pp           = parent;
+			boolean           nowFinished  = ownFinished  || (pp != null && pp.finished),
+			                  nowCancelled = ownCancelled || (pp != null && pp.cancelled);
+			
+			if(nowFinished == finished && nowCancelled == cancelled) return;
+			
+			becameFinished = nowFinished && !finished;
+			cancelled      = nowCancelled;
+			finished       = nowFinished;
+		}
+		
+		List<CancellationToken> snapshot;
+		synchronized(children) {
+			snapshot = new ArrayList<>(children);
+		}
+		
+		for(CancellationToken child : snapshot) {
+			child.refresh();
+		}
+		
+		if(becameFinished && onFinished != null) {
+			try {
+				onFinished.call();
+			} catch(Throwable exc) {
+				// owners handle their own listener failures; nothing useful to do here
+			}
+		}
+	}
+}
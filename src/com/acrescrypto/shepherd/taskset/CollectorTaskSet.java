@@ -0,0 +1,185 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+import com.acrescrypto.shepherd.taskset.RecursiveTaskSet.RecursiveTaskResultCallback;
+import com.acrescrypto.shepherd.worker.WorkerPool;
+
+/** Performs a java.util.stream Collector over a Spliterator on a WorkerPool, in place of a
+ * parallel stream on the common ForkJoinPool. The source is split with trySplit() until
+ * each piece is no larger than grain() elements; each piece is accumulated into its own
+ * container, and the containers are merged with the collector's combiner in encounter
+ * order, so ordered collectors such as toList() behave as they would sequentially.
+ * Concurrent, unordered collectors accumulate into a single shared container instead.
+ * 
+ * Tasks run at this set's priority(), and are queued alongside the pool's other work.
+ */
+public class CollectorTaskSet<T,C,R> extends TaskSet<CollectorTaskSet<T,C,R>> {
+	/** Pieces to split the source into per worker, when no grain is set. */
+	public final static int LEAVES_PER_WORKER = 4;
+	
+	/** Grain used when the size of the source cannot be estimated. */
+	public final static long DEFAULT_GRAIN = 1024;
+	
+	protected Spliterator<T>                           source;
+	protected Collector<? super T,C,R>                 collector;
+	protected long                                     grain;
+	protected int                                      priority;
+	protected R                                        result;
+	protected C                                        shared;
+	protected RecursiveTaskSet<Spliterator<T>,C>       tree;
+	protected SimpleTaskSet                            afterTaskSet;
+	
+	/** Collect a stream on a WorkerPool, blocking until the result is ready. Do not call
+	 * from a Worker thread. */
+	public static <T,R> R collect(WorkerPool pool, Stream<T> stream, Collector<? super T,?,R> collector, long timeoutMs) throws InterruptedException, TimeoutException {
+		return new CollectorTaskSet<T,Object,R>("collect")
+			.pool(pool)
+			.source(stream)
+			.collector(collector)
+			.run()
+			.await(timeoutMs)
+			.result();
+	}
+	
+	public CollectorTaskSet(String name) {
+		super(name);
+		afterTaskSet = new SimpleTaskSet("after").parent(this);
+	}
+	
+	public CollectorTaskSet<T,C,R> source(Spliterator<T> source) {
+		this.source = source;
+		return this;
+	}
+	
+	public CollectorTaskSet<T,C,R> source(Stream<T> source) {
+		return source(source.spliterator());
+	}
+	
+	public CollectorTaskSet<T,C,R> source(Collection<T> source) {
+		return source(source.spliterator());
+	}
+	
+	public Collector<? super T,C,R> collector() {
+		return collector;
+	}
+	
+	/** Set the collector to apply. Its type parameters need not match this set's exactly,
+	 * as its container type is internal to the collection. */
+	@SuppressWarnings("unchecked")
+	public CollectorTaskSet<T,C,R> collector(Collector<? super T,?,R> collector) {
+		this.collector = (Collector<? super T,C,R>) collector;
+		return this;
+	}
+	
+	public long grain() {
+		return grain;
+	}
+	
+	/** Stop splitting pieces of the source at this many elements. 0 (the default) sizes
+	 * pieces to give each worker several. */
+	public CollectorTaskSet<T,C,R> grain(long grain) {
+		this.grain = grain;
+		return this;
+	}
+	
+	public int priority() {
+		return priority;
+	}
+	
+	/** Priority of the tasks performing the collection. */
+	public CollectorTaskSet<T,C,R> priority(int priority) {
+		this.priority = priority;
+		return this;
+	}
+	
+	/** The collected result, or null until the set has finished. */
+	public R result() {
+		return result;
+	}
+	
+	/** Invoke a callback with the collected result once it is ready. */
+	public CollectorTaskSet<T,C,R> result(RecursiveTaskResultCallback<R> callback) {
+		return after(()->callback.call(result));
+	}
+	
+	public CollectorTaskSet<T,C,R> after(VoidCallback callback) {
+		afterTaskSet.task(callback);
+		return this;
+	}
+	
+	@Override
+	protected CollectorTaskSet<T,C,R> execute() {
+		if(source    == null) throw new RuntimeException("CollectorTaskSet " + name + " run without source");
+		if(collector == null) throw new RuntimeException("CollectorTaskSet " + name + " run without collector");
+		
+		long                     threshold   = threshold();
+		BiConsumer<C,? super T>  accumulator = collector.accumulator();
+		BinaryOperator<C>        combiner    = collector.combiner();
+		
+		if(isSharedContainer()) {
+			shared = collector.supplier().get();
+		}
+		
+		tree = new RecursiveTaskSet<Spliterator<T>,C>("collect " + name)
+			.parent(this)
+			.priority(priority)
+			.root(source)
+			.lambda((task, piece)->{
+				if(piece.estimateSize() > threshold) {
+					Spliterator<T> prefix = piece.trySplit();
+					if(prefix != null) {
+						task.split(prefix, piece, (left, right)->shared != null ? shared : combiner.apply(left, right));
+					}
+				}
+				
+				C container = shared != null ? shared : collector.supplier().get();
+				piece.forEachRemaining((element)->accumulator.accept(container, element));
+				task.finish(container);
+			})
+			.result((container)->{
+				result = finish(container);
+				afterTaskSet
+					.after("mark finished", ()->this.finish())
+					.run();
+			});
+		
+		tree.run();
+		return this;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected R finish(C container) {
+		if(collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH)) {
+			return (R) container;
+		}
+		
+		return collector.finisher().apply(container);
+	}
+	
+	/** True if every piece may accumulate into one container, because the collector is
+	 * concurrent and either it or the source is unordered. */
+	protected boolean isSharedContainer() {
+		if(!collector.characteristics().contains(Collector.Characteristics.CONCURRENT)) return false;
+		
+		return collector.characteristics().contains(Collector.Characteristics.UNORDERED)
+		    || !source.hasCharacteristics(Spliterator.ORDERED);
+	}
+	
+	protected long threshold() {
+		if(grain > 0) return grain;
+		
+		long size = source.estimateSize();
+		if(size == Long.MAX_VALUE) return DEFAULT_GRAIN;
+		
+		long leaves = (long) LEAVES_PER_WORKER * Math.max(1, pool().workers());
+		return Math.max(1, size / leaves);
+	}
+}
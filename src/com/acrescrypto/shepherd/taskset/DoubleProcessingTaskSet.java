@@ -0,0 +1,127 @@
+package com.acrescrypto.shepherd.taskset;
+
+/** A ProcessingTaskSet specialized to double arguments, stored in a primitive array without
+ * boxing. lambda() produces double results; mapToInt() and mapToLong() produce int or
+ * long results instead. */
+public class DoubleProcessingTaskSet extends PrimitiveProcessingTaskSet<DoubleProcessingTaskSet> {
+	public interface DoubleProcessingCallback {
+		double call(double argument) throws Exception;
+	}
+	
+	public interface DoubleToIntCallback {
+		int call(double argument) throws Exception;
+	}
+	
+	public interface DoubleToLongCallback {
+		long call(double argument) throws Exception;
+	}
+	
+	public interface DoubleEachCallback {
+		void call(double argument, double result) throws Exception;
+	}
+	
+	protected DoubleProcessingCallback lambda;
+	protected DoubleToIntCallback      intLambda;
+	protected DoubleToLongCallback     longLambda;
+	
+	public DoubleProcessingTaskSet(String name) {
+		super(name, new double[16]);
+	}
+	
+	public DoubleProcessingCallback lambda() {
+		return lambda;
+	}
+	
+	/** Process each argument into a double result. Replaces any other lambda. */
+	public DoubleProcessingTaskSet lambda(DoubleProcessingCallback lambda) {
+		clearLambdas();
+		this.lambda = lambda;
+		resultType(double.class);
+		return this;
+	}
+	
+	/** Process each argument into an int result, read with intResult() or listInts().
+	 * Replaces any other lambda. */
+	public DoubleProcessingTaskSet mapToInt(DoubleToIntCallback lambda) {
+		clearLambdas();
+		this.intLambda = lambda;
+		resultType(int.class);
+		return this;
+	}
+	
+	/** Process each argument into a long result, read with longResult() or listLongs().
+	 * Replaces any other lambda. */
+	public DoubleProcessingTaskSet mapToLong(DoubleToLongCallback lambda) {
+		clearLambdas();
+		this.longLambda = lambda;
+		resultType(long.class);
+		return this;
+	}
+	
+	public synchronized DoubleProcessingTaskSet add(double argument) {
+		int index = reserve(1);
+		arguments()[index] = argument;
+		return this;
+	}
+	
+	public synchronized DoubleProcessingTaskSet add(double... arguments) {
+		System.arraycopy(arguments, 0, argumentStorage, reserve(arguments.length), arguments.length);
+		return this;
+	}
+	
+	/** Argument at the given insertion index. */
+	public double argument(int index) {
+		return arguments()[index];
+	}
+	
+	/** Result for the argument at the given insertion index, as produced by lambda(). Only
+	 * meaningful once that argument has been processed. */
+	public double result(int index) {
+		return doubleResult(index);
+	}
+	
+	/** Invoke a callback with each argument and its result, as produced by lambda(), once
+	 * all arguments are processed. */
+	public DoubleProcessingTaskSet each(DoubleEachCallback callback) {
+		return after(()->{
+			double[] arguments = arguments();
+			for(int i = 0; i < size; i++) {
+				callback.call(arguments[i], doubleResult(i));
+			}
+		});
+	}
+	
+	/** Invoke a callback with all results, as produced by lambda(), in insertion order once
+	 * all arguments are processed. The array is the set's own result storage, not a copy. */
+	public DoubleProcessingTaskSet list(DoubleListCallback callback) {
+		return listDoubles(callback);
+	}
+	
+	protected double[] arguments() {
+		return (double[]) argumentStorage;
+	}
+	
+	protected void clearLambdas() {
+		lambda     = null;
+		intLambda  = null;
+		longLambda = null;
+	}
+	
+	@Override
+	protected void processRange(int start, int end) throws Exception {
+		double[] arguments = arguments();
+		if(lambda != null) {
+			for(int i = start; i < end; i++) {
+				doubleResults[i] = lambda.call(arguments[i]);
+			}
+		} else if(intLambda != null) {
+			for(int i = start; i < end; i++) {
+				intResults[i] = intLambda.call(arguments[i]);
+			}
+		} else {
+			for(int i = start; i < end; i++) {
+				longResults[i] = longLambda.call(arguments[i]);
+			}
+		}
+	}
+}
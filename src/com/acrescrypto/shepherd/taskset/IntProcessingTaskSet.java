@@ -0,0 +1,127 @@
+package com.acrescrypto.shepherd.taskset;
+
+/** A ProcessingTaskSet specialized to int arguments, stored in a primitive array without
+ * boxing. lambda() produces int results; mapToLong() and mapToDouble() produce long or
+ * double results instead. */
+public class IntProcessingTaskSet extends PrimitiveProcessingTaskSet<IntProcessingTaskSet> {
+	public interface IntProcessingCallback {
+		int call(int argument) throws Exception;
+	}
+	
+	public interface IntToLongCallback {
+		long call(int argument) throws Exception;
+	}
+	
+	public interface IntToDoubleCallback {
+		double call(int argument) throws Exception;
+	}
+	
+	public interface IntEachCallback {
+		void call(int argument, int result) throws Exception;
+	}
+	
+	protected IntProcessingCallback lambda;
+	protected IntToLongCallback     longLambda;
+	protected IntToDoubleCallback   doubleLambda;
+	
+	public IntProcessingTaskSet(String name) {
+		super(name, new int[16]);
+	}
+	
+	public IntProcessingCallback lambda() {
+		return lambda;
+	}
+	
+	/** Process each argument into an int result. Replaces any other lambda. */
+	public IntProcessingTaskSet lambda(IntProcessingCallback lambda) {
+		clearLambdas();
+		this.lambda = lambda;
+		resultType(int.class);
+		return this;
+	}
+	
+	/** Process each argument into a long result, read with longResult() or listLongs().
+	 * Replaces any other lambda. */
+	public IntProcessingTaskSet mapToLong(IntToLongCallback lambda) {
+		clearLambdas();
+		this.longLambda = lambda;
+		resultType(long.class);
+		return this;
+	}
+	
+	/** Process each argument into a double result, read with doubleResult() or listDoubles().
+	 * Replaces any other lambda. */
+	public IntProcessingTaskSet mapToDouble(IntToDoubleCallback lambda) {
+		clearLambdas();
+		this.doubleLambda = lambda;
+		resultType(double.class);
+		return this;
+	}
+	
+	public synchronized IntProcessingTaskSet add(int argument) {
+		int index = reserve(1);
+		arguments()[index] = argument;
+		return this;
+	}
+	
+	public synchronized IntProcessingTaskSet add(int... arguments) {
+		System.arraycopy(arguments, 0, argumentStorage, reserve(arguments.length), arguments.length);
+		return this;
+	}
+	
+	/** Argument at the given insertion index. */
+	public int argument(int index) {
+		return arguments()[index];
+	}
+	
+	/** Result for the argument at the given insertion index, as produced by lambda(). Only
+	 * meaningful once that argument has been processed. */
+	public int result(int index) {
+		return intResult(index);
+	}
+	
+	/** Invoke a callback with each argument and its result, as produced by lambda(), once
+	 * all arguments are processed. */
+	public IntProcessingTaskSet each(IntEachCallback callback) {
+		return after(()->{
+			int[] arguments = arguments();
+			for(int i = 0; i < size; i++) {
+				callback.call(arguments[i], intResult(i));
+			}
+		});
+	}
+	
+	/** Invoke a callback with all results, as produced by lambda(), in insertion order once
+	 * all arguments are processed. The array is the set's own result storage, not a copy. */
+	public IntProcessingTaskSet list(IntListCallback callback) {
+		return listInts(callback);
+	}
+	
+	protected int[] arguments() {
+		return (int[]) argumentStorage;
+	}
+	
+	protected void clearLambdas() {
+		lambda       = null;
+		longLambda   = null;
+		doubleLambda = null;
+	}
+	
+	@Override
+	protected void processRange(int start, int end) throws Exception {
+		int[] arguments = arguments();
+		if(lambda != null) {
+			for(int i = start; i < end; i++) {
+				intResults[i] = lambda.call(arguments[i]);
+			}
+		} else if(longLambda != null) {
+			for(int i = start; i < end; i++) {
+				longResults[i] = longLambda.call(arguments[i]);
+			}
+		} else {
+			for(int i = start; i < end; i++) {
+				doubleResults[i] = doubleLambda.call(arguments[i]);
+			}
+		}
+	}
+}
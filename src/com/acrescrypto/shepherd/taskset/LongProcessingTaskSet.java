@@ -0,0 +1,127 @@
+package com.acrescrypto.shepherd.taskset;
+
+/** A ProcessingTaskSet specialized to long arguments, stored in a primitive array without
+ * boxing. lambda() produces long results; mapToInt() and mapToDouble() produce int or
+ * double results instead. */
+public class LongProcessingTaskSet extends PrimitiveProcessingTaskSet<LongProcessingTaskSet> {
+	public interface LongProcessingCallback {
+		long call(long argument) throws Exception;
+	}
+	
+	public interface LongToIntCallback {
+		int call(long argument) throws Exception;
+	}
+	
+	public interface LongToDoubleCallback {
+		double call(long argument) throws Exception;
+	}
+	
+	public interface LongEachCallback {
+		void call(long argument, long result) throws Exception;
+	}
+	
+	protected LongProcessingCallback lambda;
+	protected LongToIntCallback      intLambda;
+	protected LongToDoubleCallback   doubleLambda;
+	
+	public LongProcessingTaskSet(String name) {
+		super(name, new long[16]);
+	}
+	
+	public LongProcessingCallback lambda() {
+		return lambda;
+	}
+	
+	/** Process each argument into a long result. Replaces any other lambda. */
+	public LongProcessingTaskSet lambda(LongProcessingCallback lambda) {
+		clearLambdas();
+		this.lambda = lambda;
+		resultType(long.class);
+		return this;
+	}
+	
+	/** Process each argument into an int result, read with intResult() or listInts().
+	 * Replaces any other lambda. */
+	public LongProcessingTaskSet mapToInt(LongToIntCallback lambda) {
+		clearLambdas();
+		this.intLambda = lambda;
+		resultType(int.class);
+		return this;
+	}
+	
+	/** Process each argument into a double result, read with doubleResult() or listDoubles().
+	 * Replaces any other lambda. */
+	public LongProcessingTaskSet mapToDouble(LongToDoubleCallback lambda) {
+		clearLambdas();
+		this.doubleLambda = lambda;
+		resultType(double.class);
+		return this;
+	}
+	
+	public synchronized LongProcessingTaskSet add(long argument) {
+		int index = reserve(1);
+		arguments()[index] = argument;
+		return this;
+	}
+	
+	public synchronized LongProcessingTaskSet add(long... arguments) {
+		System.arraycopy(arguments, 0, argumentStorage, reserve(arguments.length), arguments.length);
+		return this;
+	}
+	
+	/** Argument at the given insertion index. */
+	public long argument(int index) {
+		return arguments()[index];
+	}
+	
+	/** Result for the argument at the given insertion index, as produced by lambda(). Only
+	 * meaningful once that argument has been processed. */
+	public long result(int index) {
+		return longResult(index);
+	}
+	
+	/** Invoke a callback with each argument and its result, as produced by lambda(), once
+	 * all arguments are processed. */
+	public LongProcessingTaskSet each(LongEachCallback callback) {
+		return after(()->{
+			long[] arguments = arguments();
+			for(int i = 0; i < size; i++) {
+				callback.call(arguments[i], longResult(i));
+			}
+		});
+	}
+	
+	/** Invoke a callback with all results, as produced by lambda(), in insertion order once
+	 * all arguments are processed. The array is the set's own result storage, not a copy. */
+	public LongProcessingTaskSet list(LongListCallback callback) {
+		return listLongs(callback);
+	}
+	
+	protected long[] arguments() {
+		return (long[]) argumentStorage;
+	}
+	
+	protected void clearLambdas() {
+		lambda       = null;
+		intLambda    = null;
+		doubleLambda = null;
+	}
+	
+	@Override
+	protected void processRange(int start, int end) throws Exception {
+		long[] arguments = arguments();
+		if(lambda != null) {
+			for(int i = start; i < end; i++) {
+				longResults[i] = lambda.call(arguments[i]);
+			}
+		} else if(intLambda != null) {
+			for(int i = start; i < end; i++) {
+				intResults[i] = intLambda.call(arguments[i]);
+			}
+		} else {
+			for(int i = start; i < end; i++) {
+				doubleResults[i] = doubleLambda.call(arguments[i]);
+			}
+		}
+	}
+}
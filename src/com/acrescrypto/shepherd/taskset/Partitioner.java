@@ -0,0 +1,59 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Shuffles key/value pairs into a fixed number of hash partitions. Pairs may be added
+ * concurrently from any number of threads; each partition can then be aggregated
+ * independently, since every pair with a given key lands in the same partition.
+ */
+public class Partitioner<K,V> {
+	protected ArrayList<ConcurrentLinkedQueue<Map.Entry<K,V>>> partitions;
+	
+	public Partitioner(int numPartitions) {
+		partitions = new ArrayList<>(Math.max(1, numPartitions));
+		for(int i = 0; i < Math.max(1, numPartitions); i++) {
+			partitions.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+	
+	/** Number of partitions. */
+	public int partitions() {
+		return partitions.size();
+	}
+	
+	/** Index of the partition holding pairs with the given key. Null keys are permitted. */
+	public int partitionFor(Object key) {
+		int hash = Objects.hashCode(key);
+		hash ^= hash >>> 16;
+		return Math.floorMod(hash, partitions.size());
+	}
+	
+	public Partitioner<K,V> add(K key, V value) {
+		partitions.get(partitionFor(key)).add(new SimpleImmutableEntry<>(key, value));
+		return this;
+	}
+	
+	/** Raw pairs in a partition, in no particular order. */
+	public Queue<Map.Entry<K,V>> partition(int index) {
+		return partitions.get(index);
+	}
+	
+	/** Group the values in a partition by key. */
+	public Map<K,Deque<V>> group(int index) {
+		HashMap<K,Deque<V>> groups = new HashMap<>();
+		for(Map.Entry<K,V> entry : partitions.get(index)) {
+			groups.computeIfAbsent(entry.getKey(), (key)->new LinkedList<>())
+			      .add(entry.getValue());
+		}
+		
+		return groups;
+	}
+}
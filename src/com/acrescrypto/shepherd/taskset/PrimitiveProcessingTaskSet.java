@@ -0,0 +1,243 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+
+/** Common machinery for ProcessingTaskSets specialized to primitive arguments and results.
+ * Arguments and results live in primitive arrays indexed by insertion order, and the
+ * arguments are processed in contiguous index ranges, one task per range, so no object is
+ * allocated per argument. Lambdas must return their result synchronously.
+ * 
+ * Results may be int, long or double regardless of the argument type, depending on
+ * which lambda the subclass was given, so that widening workloads such as long to
+ * double do not have to round-trip their arguments through a narrower type.
+ * 
+ * Arguments may be added from several threads, but must be added before run() is
+ * called.
+ */
+public abstract class PrimitiveProcessingTaskSet<T extends PrimitiveProcessingTaskSet<T>> extends TaskSet<T> {
+	public interface IntListCallback {
+		void call(int[] results) throws Exception;
+	}
+	
+	public interface LongListCallback {
+		void call(long[] results) throws Exception;
+	}
+	
+	public interface DoubleListCallback {
+		void call(double[] results) throws Exception;
+	}
+	
+	/** Number of range tasks created per worker when no chunk size is set. */
+	public final static int CHUNKS_PER_WORKER = 8;
+	
+	protected volatile int  size;
+	protected int           chunkSize;
+	protected Object        argumentStorage;
+	protected Class<?>      resultType;
+	protected int[]         intResults;
+	protected long[]        longResults;
+	protected double[]      doubleResults;
+	protected AtomicInteger remainingChunks = new AtomicInteger();
+	protected SimpleTaskSet afterTaskSet;
+	
+	/** @param argumentStorage Empty primitive array of the argument type, grown as
+	 * arguments are added. */
+	public PrimitiveProcessingTaskSet(String name, Object argumentStorage) {
+		super(name);
+		this.argumentStorage = argumentStorage;
+		afterTaskSet = new SimpleTaskSet("after").parent(this);
+	}
+	
+	/** Number of arguments added to this set. */
+	public int size() {
+		return size;
+	}
+	
+	/** Number of arguments processed by each task, or 0 to size ranges automatically. */
+	public int chunkSize() {
+		return chunkSize;
+	}
+	
+	/** Set the number of arguments processed by each task. 0 (the default) divides the
+	 * arguments into CHUNKS_PER_WORKER ranges per worker. */
+	public T chunkSize(int chunkSize) {
+		this.chunkSize = Math.max(0, chunkSize);
+		return self();
+	}
+	
+	/** Primitive type of the results: int.class, long.class or double.class, or null
+	 * until a lambda is set. */
+	public Class<?> resultType() {
+		return resultType;
+	}
+	
+	/** Int result for the argument at the given insertion index. */
+	public int intResult(int index) {
+		if(intResults != null) return intResults[index];
+		throw wrongResultType(int.class);
+	}
+	
+	/** Result for the argument at the given insertion index, as a long. Int results are
+	 * widened. */
+	public long longResult(int index) {
+		if(longResults != null) return longResults[index];
+		if(intResults  != null) return intResults [index];
+		throw wrongResultType(long.class);
+	}
+	
+	/** Result for the argument at the given insertion index, as a double. Int and long
+	 * results are widened. */
+	public double doubleResult(int index) {
+		if(doubleResults != null) return doubleResults[index];
+		if(longResults   != null) return longResults  [index];
+		if(intResults    != null) return intResults   [index];
+		throw wrongResultType(double.class);
+	}
+	
+	/** Invoke a callback with all int results, in insertion order, once all arguments
+	 * are processed. The array is the set's own result storage, not a copy. */
+	public T listInts(IntListCallback callback) {
+		return after(()->{
+			if(intResults == null) throw wrongResultType(int.class);
+			callback.call(intResults);
+		});
+	}
+	
+	/** Invoke a callback with all long results, as for listInts. */
+	public T listLongs(LongListCallback callback) {
+		return after(()->{
+			if(longResults == null) throw wrongResultType(long.class);
+			callback.call(longResults);
+		});
+	}
+	
+	/** Invoke a callback with all double results, as for listInts. */
+	public T listDoubles(DoubleListCallback callback) {
+		return after(()->{
+			if(doubleResults == null) throw wrongResultType(double.class);
+			callback.call(doubleResults);
+		});
+	}
+	
+	public T after(VoidCallback callback) {
+		afterTaskSet.task(callback);
+		return self();
+	}
+	
+	@Override
+	protected T execute() {
+		if(resultType == null) throw new RuntimeException(getClass().getSimpleName() + " " + name + " run without registered lambda");
+		
+		int size;
+		synchronized(this) {
+			// any add() that got past the started check in reserve() has finished by the time we get the lock
+			size = this.size;
+			prepareResults(size);
+		}
+		
+		if(size == 0) {
+			runAfters();
+			return self();
+		}
+		
+		int step = chunkSize > 0
+		         ? chunkSize
+		         : Math.max(1, size / (CHUNKS_PER_WORKER * Math.max(1, pool().workers())));
+		
+		remainingChunks.set((size + step - 1) / step);
+		for(int start = 0; start < size; start += step) {
+			pool().addTask(new PrimitiveChunkTask(this, start, Math.min(size, start + step)));
+		}
+		
+		return self();
+	}
+	
+	/** Make room for count more arguments, growing argument storage if needed, and
+	 * return the index at which the caller must store them. Callers hold the set's lock
+	 * until they have stored the arguments.
+	 * @throws RuntimeException if the set has already been run, since results are sized
+	 *   then. */
+	protected int reserve(int count) {
+		if(isStarted()) throw new RuntimeException(getClass().getSimpleName() + " " + name + " cannot accept arguments after run()");
+		
+		int index    = size,
+		    capacity = Array.getLength(argumentStorage);
+		if(index + count > capacity) {
+			Object grown = Array.newInstance(
+					argumentStorage.getClass().getComponentType(),
+					Math.max(index + count, Math.max(16, capacity + (capacity >> 1))));
+			System.arraycopy(argumentStorage, 0, grown, 0, index);
+			argumentStorage = grown;
+		}
+		
+		size = index + count;
+		return index;
+	}
+	
+	/** Record the primitive type the current lambda produces. */
+	protected void resultType(Class<?> resultType) {
+		this.resultType = resultType;
+	}
+	
+	/** Allocate result storage for every argument. Called once, when the set is run. */
+	protected void prepareResults(int size) {
+		if     (resultType == int.class   ) intResults    = new int   [size];
+		else if(resultType == long.class  ) longResults   = new long  [size];
+		else if(resultType == double.class) doubleResults = new double[size];
+	}
+	
+	protected RuntimeException wrongResultType(Class<?> requested) {
+		return new RuntimeException(getClass().getSimpleName() + " " + name + " has " + resultType + " results, not " + requested);
+	}
+	
+	/** A range task has processed all of its arguments. */
+	protected void finishedChunk() {
+		if(remainingChunks.decrementAndGet() != 0) return;
+		runAfters();
+	}
+	
+	protected void runAfters() {
+		afterTaskSet
+			.after("mark finished", ()->this.finish())
+			.run();
+	}
+	
+	/** Run the lambda for every argument in [start, end), storing the results. */
+	protected abstract void processRange(int start, int end) throws Exception;
+	
+	/** Processes one contiguous range of a PrimitiveProcessingTaskSet's arguments. */
+	public static class PrimitiveChunkTask extends Task<PrimitiveChunkTask> {
+		protected PrimitiveProcessingTaskSet<?> taskset;
+		protected int                           start,
+		                                        end;
+		
+		public PrimitiveChunkTask(PrimitiveProcessingTaskSet<?> taskset, int start, int end) {
+			super("[" + start + ", " + end + ") (" + taskset.name() + ")");
+			this.taskset = taskset;
+			this.start   = start;
+			this.end     = end;
+		}
+		
+		public int start() {
+			return start;
+		}
+		
+		public int end() {
+			return end;
+		}
+		
+		@Override
+		protected void execute() throws Exception {
+			taskset.processRange(start, end);
+			taskset.finishedChunk();
+		}
+		
+		@Override
+		public PrimitiveProcessingTaskSet<?> taskset() {
+			return taskset;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.ArrayList;
+
+/** A batch of ProcessingTasks from one ProcessingTaskSet, run back-to-back by a single
+ * Worker. Each argument still completes individually via its own ProcessingTask. */
+public class ProcessingChunkTask<A,R> extends Task<ProcessingChunkTask<A,R>> {
+	protected ProcessingTaskSet<A,R>         taskset;
+	protected ArrayList<ProcessingTask<A,R>> items;
+	
+	public ProcessingChunkTask(ProcessingTaskSet<A,R> taskset, int capacity) {
+		super("chunk (" + taskset.name() + ")");
+		this.taskset = taskset;
+		this.items   = new ArrayList<>(capacity);
+	}
+	
+	public ProcessingChunkTask<A,R> add(ProcessingTask<A,R> item) {
+		items.add(item);
+		return this;
+	}
+	
+	public int size() {
+		return items.size();
+	}
+	
+	@Override
+	public boolean isCancelled() {
+		return super.isCancelled() || taskset.isStopped();
+	}
+	
+	@Override
+	protected void execute() throws Exception {
+		long start = System.nanoTime();
+		try {
+			for(ProcessingTask<A,R> item : items) {
+				if(isCancelled()) break;
+				item.run();
+			}
+		} finally {
+			taskset.finishedChunk(this, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public ProcessingTaskSet<A,R> taskset() {
+		return taskset;
+	}
+}
@@ -0,0 +1,180 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Stream;
+
+import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+import com.acrescrypto.shepherd.taskset.ProcessingTaskSet.ProcessingTaskSimpleCallback;
+
+/** A chain of ProcessingTaskSets, each processing the results of the one before it. Each
+ * result moves to the next stage as soon as it is ready, so every stage runs at the same
+ * time and nothing waits for a whole stage to finish.
+ * 
+ * At most capacity() arguments are outstanding between each pair of stages. A stage stops
+ * scheduling work once its own work in flight, plus everything the next stage has waiting,
+ * queued or running, would exceed that bound. It resumes as the next stage finishes
+ * arguments. As a result, a slow stage holds back the stages before it rather than letting
+ * its input pile up in memory.
+ * 
+ * A pipeline starts with its input type as its output type, and each stage() returns the
+ * pipeline retyped to that stage's output:
+ * 
+ *   new ProcessingPipeline<String,String>("words")
+ *       .stage("parse", (line)->line.split(" "))
+ *       .stage("count", (words)->words.length)
+ *       .each((count)->...)
+ */
+public class ProcessingPipeline<A,R> extends TaskSet<ProcessingPipeline<A,R>> {
+	public interface ProcessingPipelineResultCallback<R> {
+		void call(R result) throws Exception;
+	}
+	
+	/** Default bound on the number of arguments queued or in flight between two stages. */
+	public final static int DEFAULT_CAPACITY = 64;
+	
+	protected ArrayList<ProcessingTaskSet<?,?>>                  stages   = new ArrayList<>();
+	protected Deque<ProcessingPipelineResultCallback<Object>>    outputs  = new ConcurrentLinkedDeque<>();
+	protected int                                                capacity = DEFAULT_CAPACITY;
+	protected SimpleTaskSet                                      afterTaskSet;
+	
+	public ProcessingPipeline(String name) {
+		super(name);
+		afterTaskSet = new SimpleTaskSet("after").parent(this);
+	}
+	
+	public List<ProcessingTaskSet<?,?>> stages() {
+		return stages;
+	}
+	
+	public int capacity() {
+		return capacity;
+	}
+	
+	/** Set the bound on arguments queued or in flight between each pair of stages. */
+	public ProcessingPipeline<A,R> capacity(int capacity) {
+		this.capacity = capacity;
+		return this;
+	}
+	
+	/** Append a stage with no limit on concurrency beyond the capacity between stages. */
+	public <S> ProcessingPipeline<A,S> stage(String name, ProcessingTaskSimpleCallback<R,S> lambda) {
+		return stage(name, 0, lambda);
+	}
+	
+	/** Append a stage running at most `concurrency` arguments at once. */
+	public <S> ProcessingPipeline<A,S> stage(String name, int concurrency, ProcessingTaskSimpleCallback<R,S> lambda) {
+		return stage(new ProcessingTaskSet<R,S>(name)
+				.lambda(lambda)
+				.maxInFlight(concurrency));
+	}
+	
+	/** Append an existing set as a stage, allowing options such as retry() or cache() to be
+	 * configured on it. The set must not be run directly, and its own .after() callbacks run
+	 * as its stage completes. */
+	@SuppressWarnings("unchecked")
+	public <S> ProcessingPipeline<A,S> stage(ProcessingTaskSet<R,S> stage) {
+		if(isStarted()) throw new RuntimeException("Cannot add stage to running ProcessingPipeline " + name);
+		
+		int index = stages.size();
+		if(index > 0) {
+			// the stage cannot finish until the stage feeding it has
+			ProcessingTaskSet<?,R> previous = (ProcessingTaskSet<?,R>) stages.get(index - 1);
+			stage.hold();
+			previous.after(()->stage.release());
+		}
+		
+		stage
+			.parent(this)
+			.stream((argument, result)->forward(index, result));
+		stages.add(stage);
+		
+		return (ProcessingPipeline<A,S>) this;
+	}
+	
+	/** Add an argument to the first stage. */
+	public ProcessingPipeline<A,R> add(A argument) {
+		first().add(argument);
+		return this;
+	}
+	
+	public ProcessingPipeline<A,R> add(Collection<A> arguments) {
+		first().add(arguments);
+		return this;
+	}
+	
+	/** Draw arguments for the first stage lazily from an iterator, as capacity allows. */
+	public ProcessingPipeline<A,R> source(Iterator<? extends A> source) {
+		first().source(source);
+		return this;
+	}
+	
+	public ProcessingPipeline<A,R> source(Stream<? extends A> source) {
+		first().source(source);
+		return this;
+	}
+	
+	/** Invoke a callback for each result of the last stage, as soon as it is ready.
+	 * Callbacks may be invoked concurrently, in no particular order. */
+	@SuppressWarnings("unchecked")
+	public ProcessingPipeline<A,R> each(ProcessingPipelineResultCallback<R> callback) {
+		outputs.add((ProcessingPipelineResultCallback<Object>) callback);
+		return this;
+	}
+	
+	public ProcessingPipeline<A,R> after(VoidCallback callback) {
+		afterTaskSet.task(callback);
+		return this;
+	}
+	
+	@Override
+	protected ProcessingPipeline<A,R> execute() {
+		if(stages.isEmpty()) throw new RuntimeException("ProcessingPipeline " + name + " run without any stages");
+		
+		for(int i = 1; i < stages.size(); i++) {
+			connect(stages.get(i - 1), stages.get(i));
+		}
+		
+		stages.get(stages.size() - 1).after(()->{
+			afterTaskSet
+				.after("mark finished", ()->this.finish())
+				.run();
+		});
+		
+		// start from the end, so that each stage is ready before results arrive
+		for(int i = stages.size() - 1; i >= 0; i--) {
+			stages.get(i).run();
+		}
+		
+		return this;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected <B,S> void connect(ProcessingTaskSet<?,?> upstream, ProcessingTaskSet<?,?> downstream) {
+		((ProcessingTaskSet<B,S>) upstream).connect((ProcessingTaskSet<S,?>) downstream, capacity);
+	}
+	
+	/** Pass a result from one stage to the next, or to our output callbacks after the last
+	 * stage. */
+	@SuppressWarnings("unchecked")
+	protected void forward(int index, Object result) throws Exception {
+		if(index + 1 < stages.size()) {
+			((ProcessingTaskSet<Object,?>) stages.get(index + 1)).add(result);
+			return;
+		}
+		
+		for(ProcessingPipelineResultCallback<Object> output : outputs) {
+			output.call(result);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected ProcessingTaskSet<A,?> first() {
+		if(stages.isEmpty()) throw new RuntimeException("ProcessingPipeline " + name + " has no stages to accept arguments");
+		return (ProcessingTaskSet<A,?>) stages.get(0);
+	}
+}
@@ -1,13 +1,23 @@
 package com.acrescrypto.shepherd.taskset;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.acrescrypto.shepherd.exceptions.TaskFinishedException;
 
 public class ProcessingTask<A,R> extends Task<ProcessingTask<A,R>> {
+	/** Set by the one call to complete() that gets to settle the task, before it asks the
+	 * set to admit the result. */
+	protected final static int            COMPLETING = 1 << 2;
 
 	protected ProcessingTaskSet<A,R>      taskset;
 	protected A                           argument;
 	protected R                           result;
-	protected boolean                     finished;
+	protected long                        index;
+	protected ProcessingTask<A,R>         spawnedBy;
+	protected AtomicInteger               engaged = new AtomicInteger(1);
+	protected AtomicBoolean               computing = new AtomicBoolean();
+	protected int                         attempts;
 	
 	public ProcessingTask(ProcessingTaskSet<A,R> taskset, A argument) {
 		super(
@@ -29,25 +39,132 @@ public class ProcessingTask<A,R> extends Task<ProcessingTask<A,R>> {
 		return argument;
 	}
 	
+	/** Position of this argument in the order it was added to its ProcessingTaskSet. */
+	public long index() {
+		return index;
+	}
+	
+	public ProcessingTask<A,R> index(long index) {
+		this.index = index;
+		return this;
+	}
+	
 	public R result() {
 		return result;
 	}
 	
-	public boolean isFinished() {
-		return finished;
+	/** Number of times the lambda has been invoked for this task, including retries. */
+	public int attempts() {
+		return attempts;
+	}
+	
+	/** The task that spawned this one, or null if it was added to the set directly. Cleared
+	 * once this task and everything it spawned have finished. */
+	public ProcessingTask<A,R> spawnedBy() {
+		return spawnedBy;
+	}
+	
+	/** Add an argument to this task's set, discovered while processing this one. The set
+	 * will not finish until the spawned argument, and anything it spawns in turn, has
+	 * finished. Returns false if the set drops the argument as already visited. Must be
+	 * called before this task finishes.
+	 */
+	public boolean spawn(A argument) {
+		return taskset.spawn(this, argument);
 	}
 	
 	public void finish(R result) {
-		this.finished = true;
-		this.result   = result;
-		taskset.finishedTask(this);
+		complete(result);
 		throw new TaskFinishedException();
 	}
+	
+	/** Finish with a result without unwinding the caller, as when a result is supplied from
+	 * outside the lambda. */
+	protected void complete(R result) {
+		// settle which call finishes us before anything else, so a repeated completion
+		// neither replaces the result nor takes up another of the set's limit() slots
+		if(!transition(COMPLETING)) return;
+		
+		if(computing.compareAndSet(true, false)) {
+			taskset.cache().fulfill(this, result);
+			taskset.claimClosed(this);
+		}
+		
+		// a refused task is left unfinished, so it is not collected with the set's results
+		if(!taskset.admit(this)) {
+			taskset.refusedTask(this);
+			return;
+		}
+		
+		// publish the result before the state word, so anyone who sees us finished sees it
+		this.result = result;
+		transition(FINISHED);
+		taskset.finishedTask(this);
+	}
 
+	/** True if this task has been cancelled, or its set has finished or been stopped. */
+	@Override
+	public boolean isCancelled() {
+		return super.isCancelled() || taskset.isStopped();
+	}
+	
+	/** Take a hold on this task on behalf of a spawned child. Fails once this task and all
+	 * of its children have finished. */
+	protected boolean engage() {
+		int current;
+		do {
+			current = engaged.get();
+			if(current == 0) return false;
+		} while(!engaged.compareAndSet(current, current + 1));
+		
+		return true;
+	}
+	
+	/** Release a hold on this task. Returns true if that was the last one. */
+	protected boolean disengage() {
+		return engaged.decrementAndGet() == 0;
+	}
+
+	/** Run the lambda, first claiming the argument from the set's cache if it has one.
+	 * The claim is held until the task completes, which may be long after the lambda
+	 * returns if it finishes asynchronously, and across retries. It is given up if the
+	 * task fails for good or its set finishes without it. */
 	@Override
 	protected void execute() throws Exception {
+		ResultCache<A,R> cache = taskset.cache();
+		if(cache != null && !computing.get()) {
+			if(!cache.claim(this)) return;
+			computing.set(true);
+			taskset.claimOpened(this);
+		}
+		
+		attempts++;
 		taskset.lambda().call(this, argument);
 	}
+	
+	/** Reschedule this task if its set has a RetryPolicy that permits it, and otherwise
+	 * pass the exception on to the set. */
+	@Override
+	public ProcessingTask<A,R> exception(Throwable exc) {
+		RetryPolicy policy = taskset.retry();
+		if(policy != null && !isCancelled() && policy.shouldRetry(exc, attempts)) {
+			taskset.reschedule(this, policy.delayFor(attempts));
+			return this;
+		}
+		
+		super.exception(exc);
+		abandonClaim();
+		return this;
+	}
+	
+	/** Give up our cache claim without a result, letting a waiting task compute it
+	 * instead. */
+	protected void abandonClaim() {
+		if(computing.compareAndSet(true, false)) {
+			taskset.cache().abandon(this);
+			taskset.claimClosed(this);
+		}
+	}
 
 	@Override
 	public ProcessingTaskSet<A,R> taskset() {
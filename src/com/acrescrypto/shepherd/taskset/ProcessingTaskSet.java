@@ -1,14 +1,27 @@
 package com.acrescrypto.shepherd.taskset;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
+import com.acrescrypto.shepherd.Callbacks.TaskCallback;
 import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+import com.acrescrypto.shepherd.exceptions.TaskFinishedException;
 
 public class ProcessingTaskSet<A,R> extends TaskSet<ProcessingTaskSet<A,R>> {
 	public interface ProcessingTaskSimpleCallback<A,R> {
@@ -31,10 +44,93 @@ public class ProcessingTaskSet<A,R> extends TaskSet<ProcessingTaskSet<A,R>> {
 		void call(Map<A,R> results) throws Exception;
 	}
 	
+	public interface ProcessingTaskSetPredicate<A,R> {
+		boolean call(A argument, R result) throws Exception;
+	}
+	
+	public interface ProcessingTaskSetAccumulator<U,R> {
+		U call(U partial, R result) throws Exception;
+	}
+	
+	public interface ProcessingTaskSetCombiner<U> {
+		U call(U left, U right) throws Exception;
+	}
+	
+	public interface ProcessingTaskSetReduceCallback<U> {
+		void call(U result) throws Exception;
+	}
+	
+	public interface ProcessingTaskSetKeyFunction<A,R,K> {
+		K call(A argument, R result) throws Exception;
+	}
+	
+	public interface ProcessingTaskSetGroupCallback<K,R> {
+		void call(K key, Deque<R> results) throws Exception;
+	}
+	
+	public interface ProcessingTaskSetJoinCallback<K,R,S> {
+		void call(K key, R left, S right) throws Exception;
+	}
+	
+	protected interface PartitionCallback {
+		void call(int partition) throws Exception;
+	}
+	
+	/** One thread's running accumulation for a reduce(). Only its owning thread writes it;
+	 * it is read after every argument has finished. */
+	protected static class ReducePartial<U> {
+		U value;
+		
+		ReducePartial(U value) {
+			this.value = value;
+		}
+	}
+	
+	/** Largest chunk the adaptive chunker will form, regardless of measured item time. */
+	public final static int MAX_ADAPTIVE_CHUNK_SIZE = 65536;
+	
+	/** Arguments pulled from a source ahead of time, per worker, when no maxInFlight limit
+	 * is set. */
+	public final static int SOURCE_READAHEAD_PER_WORKER = 4;
+	
 	protected ConcurrentLinkedDeque<ProcessingTask<A,R>> arguments      = new ConcurrentLinkedDeque<>();
+	protected ConcurrentLinkedDeque<ProcessingTask<A,R>> backlog        = new ConcurrentLinkedDeque<>();
 	protected ProcessingTaskCallback<A,R>                lambda;
 	protected AtomicInteger                              numOutstanding = new AtomicInteger();
+	protected AtomicInteger                              chunksInFlight = new AtomicInteger();
+	protected AtomicInteger                              inFlight       = new AtomicInteger();
+	protected int                                        maxInFlight;
 	protected SimpleTaskSet                              afterTaskSet;
+	protected int                                        chunkSize      = 1;
+	protected long                                       chunkTargetNs;
+	protected double                                     nanosPerItem;
+	protected long                                       nextIndex;
+	protected Deque<ProcessingTaskSetEachCallback<A,R>>  streams        = new ConcurrentLinkedDeque<>(),
+	                                                     orderedStreams = new ConcurrentLinkedDeque<>();
+	protected ConcurrentHashMap<Long,ProcessingTask<A,R>> reorderBuffer = new ConcurrentHashMap<>();
+	protected volatile long                              nextOrdered;
+	protected int                                        reorderWindow;
+	protected boolean                                    collecting;
+	protected Deque<Iterator<? extends A>>               sources        = new ConcurrentLinkedDeque<>();
+	protected Map<Iterator<?>,AutoCloseable>             closeables     = new ConcurrentHashMap<>();
+	protected AtomicBoolean                              pulling        = new AtomicBoolean(),
+	                                                     pullWanted     = new AtomicBoolean();
+	protected Deque<TaskCallback<SimpleTask>>            finalizers     = new ConcurrentLinkedDeque<>();
+	protected VisitedSet<A>                              visited;
+	protected AtomicInteger                              backlogSize    = new AtomicInteger();
+	protected ProcessingTaskSet<?,A>                     upstream;
+	protected ProcessingTaskSet<R,?>                     downstream;
+	protected int                                        downstreamCapacity;
+	protected ResultCache<A,R>                           cache;
+	protected Set<ProcessingTask<A,R>>                   openClaims     = ConcurrentHashMap.newKeySet();
+	protected AtomicBoolean                              watchingClaims = new AtomicBoolean();
+	protected RetryPolicy                                retry;
+	protected AtomicLong                                 retries        = new AtomicLong();
+	protected long                                       limit;
+	protected AtomicLong                                 admitted       = new AtomicLong(),
+	                                                     delivered      = new AtomicLong();
+	protected AtomicBoolean                              stopped        = new AtomicBoolean(),
+	                                                     concluded      = new AtomicBoolean();
 	
 	public ProcessingTaskSet(String name) {
 		super(name);
@@ -45,10 +141,19 @@ public class ProcessingTaskSet<A,R> extends TaskSet<ProcessingTaskSet<A,R>> {
 		return lambda;
 	}
 	
+	/** Tasks for every argument added to this set. When results are streamed and no
+	 * .each(), .list() or .map() callback is registered, tasks are not retained here, so
+	 * that delivered results can be collected. */
 	public Deque<ProcessingTask<A,R>> arguments() {
 		return arguments;
 	}
 	
+	/** True if tasks and their results are kept in arguments() after they finish. */
+	public boolean retainsResults() {
+		return collecting
+			|| (streams.isEmpty() && orderedStreams.isEmpty());
+	}
+	
 	public ProcessingTaskSet<A,R> lambda(ProcessingTaskCallback<A,R> lambda) {
 		this.lambda = lambda;
 		return this;
@@ -58,31 +163,224 @@ public class ProcessingTaskSet<A,R> extends TaskSet<ProcessingTaskSet<A,R>> {
 		this.lambda = (task, arg)->task.finish(lambda.call(arg));
 		return this;
 	}
+	
+	/** Number of arguments processed by each task placed on the WorkerPool. When adaptive
+	 * chunking is enabled, this is the size the next chunk will have. */
+	public int chunkSize() {
+		if(chunkTargetNs <= 0 || nanosPerItem <= 0) return chunkSize;
+		
+		double size = chunkTargetNs / nanosPerItem;
+		return (int) Math.max(1, Math.min(MAX_ADAPTIVE_CHUNK_SIZE, size));
+	}
+	
+	/** Process arguments in fixed-size batches. Each batch is a single task on the
+	 * WorkerPool, which runs the lambda for every argument in it in turn. Results are still
+	 * reported per argument. A size of 1 (the default) disables chunking.
+	 */
+	public ProcessingTaskSet<A,R> chunks(int chunkSize) {
+		this.chunkSize     = Math.max(1, chunkSize);
+		this.chunkTargetNs = 0;
+		return this;
+	}
+	
+	/** Process arguments in batches sized so that each batch takes roughly the given number
+	 * of microseconds. The size is tuned continuously from measured time per argument,
+	 * starting from single-argument batches.
+	 */
+	public ProcessingTaskSet<A,R> adaptiveChunks(long targetTaskMicros) {
+		this.chunkSize     = 1;
+		this.chunkTargetNs = 1000 * targetTaskMicros;
+		return this;
+	}
+	
+	/** Maximum number of this set's arguments queued or running at once, or 0 if there is
+	 * no limit. */
+	public int maxInFlight() {
+		return maxInFlight;
+	}
+	
+	/** Keep at most maxInFlight of this set's arguments queued on the WorkerPool or running
+	 * at once. The remainder wait in this set's backlog, and the next argument is
+	 * scheduled only when one finishes. This keeps a very large set from flooding the
+	 * pool queue ahead of other work. A value of 0 (the default) removes the limit.
+	 */
+	public ProcessingTaskSet<A,R> maxInFlight(int maxInFlight) {
+		this.maxInFlight = Math.max(0, maxInFlight);
+		if(isRunning()) dispatch();
+		return this;
+	}
+	
+	/** Number of this set's arguments currently queued on the WorkerPool or running. */
+	public int inFlight() {
+		return inFlight.get();
+	}
+	
+	/** True if arguments are batched into chunk tasks. */
+	public boolean isChunked() {
+		return chunkSize > 1 || chunkTargetNs > 0;
+	}
 
 	@Override
 	public ProcessingTaskSet<A,R> execute() {
 		if(lambda == null) throw new RuntimeException("ProcessingTaskSet " + name + " run without registered lambda");
 		
-		if(arguments.isEmpty()) {
+		if(numOutstanding.get() == 0) {
 			runAfters();
 			return this;
 		}
 		
-		for(ProcessingTask<A,R> task : arguments) {
-			pool().addTask(task);
+		dispatch();
+		return this;
+	}
+	
+	public ProcessingTaskSet<A,R> add(A argument) {
+		enqueue(argument, null);
+		if(isRunning()) dispatch();
+		return this;
+	}
+	
+	public ResultCache<A,R> cache() {
+		return cache;
+	}
+	
+	/** Look up each argument in a cache before running the lambda, and store each result
+	 * computed. The cache may be shared by several sets running the same lambda. */
+	public ProcessingTaskSet<A,R> cache(ResultCache<A,R> cache) {
+		this.cache = cache;
+		return this;
+	}
+	
+	public RetryPolicy retry() {
+		return retry;
+	}
+	
+	/** Run arguments whose lambda throws again after a delay, as permitted by the policy,
+	 * rather than cancelling the set. Retries wait in the WorkerPool queue until their
+	 * notBefore time, so no Worker sleeps through the backoff. */
+	public ProcessingTaskSet<A,R> retry(RetryPolicy retry) {
+		this.retry = retry;
+		return this;
+	}
+	
+	/** Number of times an argument has been rescheduled after failing. */
+	public long retries() {
+		return retries.get();
+	}
+	
+	/** Expose this set as a Flow.Processor taking arguments from an upstream publisher
+	 * and publishing results, with at most `window` items between the two at once. See
+	 * ProcessingTaskSetProcessor. */
+	public ProcessingTaskSetProcessor<A,R> processor(int window) {
+		return new ProcessingTaskSetProcessor<>(this, window);
+	}
+	
+	/** Drop any argument that has been added, spawned or drawn from a source before, as
+	 * judged by equals() and hashCode(). */
+	public ProcessingTaskSet<A,R> distinct() {
+		return distinct(new VisitedSet<>());
+	}
+	
+	/** Drop any argument already recorded in the given set, and record each new one there.
+	 * The set may be shared between several ProcessingTaskSets. */
+	public ProcessingTaskSet<A,R> distinct(VisitedSet<A> visited) {
+		this.visited = visited;
+		return this;
+	}
+	
+	/** Arguments seen so far when distinct() is in effect, or null otherwise. */
+	public VisitedSet<A> visited() {
+		return visited;
+	}
+	
+	/** Add an argument on behalf of a running task. The new task holds its parent open
+	 * rather than the set itself, so the set finishes exactly when every tree of spawned
+	 * work has drained, while the set-wide outstanding count is only touched once per
+	 * tree.
+	 */
+	protected boolean spawn(ProcessingTask<A,R> parent, A argument) {
+		if(visited != null && !visited.add(argument)) return false;
+		if(!parent.engage()) {
+			throw new RuntimeException("Cannot spawn from task " + parent.name() + " after it has finished");
+		}
+		
+		enqueue(argument, parent);
+		if(isRunning()) dispatch();
+		return true;
+	}
+	
+	/** Keep the set from finishing, even once it has no arguments left, until a matching
+	 * call to release(). Useful when arguments will continue to arrive from elsewhere. */
+	public ProcessingTaskSet<A,R> hold() {
+		numOutstanding.incrementAndGet();
+		return this;
+	}
+	
+	/** Release a hold taken by hold(). The set finishes once all holds are released and
+	 * every argument has finished. */
+	public ProcessingTaskSet<A,R> release() {
+		if(numOutstanding.decrementAndGet() == 0 && isRunning()) {
+			runAfters();
 		}
 		
 		return this;
 	}
 	
-	public ProcessingTaskSet<A,R> add(A argument) {
-		ProcessingTask<A,R> task = new ProcessingTask<>(this, argument);
+	/** Number of arguments waiting to be scheduled. */
+	public int backlogSize() {
+		return backlogSize.get();
+	}
+	
+	/** Draw arguments lazily from an iterator. Arguments are pulled only as capacity frees
+	 * up: up to maxInFlight() at a time if set, or a small readahead per worker otherwise.
+	 * The total count need not be known; the set completes once every source is exhausted
+	 * and all arguments drawn from it have finished. The iterator is only ever accessed by
+	 * one thread at a time, and never while holding the set's lock, so a source that blocks
+	 * on I/O holds up only the thread pulling from it.
+	 */
+	public ProcessingTaskSet<A,R> source(Iterator<? extends A> source) {
+		// an open source counts as outstanding work until it is exhausted
 		numOutstanding.incrementAndGet();
-		arguments.add(task);
-		if(isRunning()) pool().addTask(task);
+		sources.add(source);
+		if(isRunning()) dispatch();
 		return this;
 	}
 	
+	/** Draw arguments lazily from a stream. See source(Iterator). The stream is closed
+	 * once it is exhausted or fails, or the set stops or finishes, so sources such as
+	 * Files.lines() release what they hold. */
+	public ProcessingTaskSet<A,R> source(Stream<? extends A> source) {
+		Iterator<? extends A> iterator = source.iterator();
+		closeables.put(iterator, source);
+		addFinishListener(()->closeSource(iterator));
+		return source(iterator);
+	}
+	
+	/** Draw arguments lazily from a spliterator. See source(Iterator). */
+	public ProcessingTaskSet<A,R> source(Spliterator<? extends A> source) {
+		return source(Spliterators.iterator(source));
+	}
+	
+	/** Create the task for an argument and place it in the backlog. Tasks without a parent
+	 * count against the set's outstanding work; spawned tasks already hold their parent.
+	 * Returns null if the argument was dropped as already visited. */
+	protected ProcessingTask<A,R> enqueue(A argument, ProcessingTask<A,R> parent) {
+		if(parent == null && visited != null && !visited.add(argument)) return null;
+		
+		ProcessingTask<A,R> task = new ProcessingTask<>(this, argument);
+		task.spawnedBy = parent;
+		if(parent == null) numOutstanding.incrementAndGet();
+		if(retainsResults()) arguments.add(task);
+		
+		// the backlog must stay in index order for the reorder window to hold
+		synchronized(backlog) {
+			task.index(nextIndex++);
+			backlog.add(task);
+			backlogSize.incrementAndGet();
+		}
+		
+		return task;
+	}
+	
 	public ProcessingTaskSet<A,R> add(Collection<A> arguments) {
 		for(A argument : arguments) {
 			add(argument);
@@ -96,18 +394,107 @@ public class ProcessingTaskSet<A,R> extends TaskSet<ProcessingTaskSet<A,R>> {
 		return this;
 	}
 	
+	/** Invoke a callback for each argument and its result as soon as that argument
+	 * finishes, rather than after the whole set is done. Callbacks may be invoked
+	 * concurrently from several Workers, in no particular order. All streamed callbacks have
+	 * returned before any .after() callback runs. Register streams before adding arguments.
+	 */
+	public ProcessingTaskSet<A,R> stream(ProcessingTaskSetEachCallback<A,R> callback) {
+		streams.add(callback);
+		return this;
+	}
+	
+	/** Invoke a callback for each argument and its result in the order the arguments were
+	 * added, as soon as all earlier arguments have been delivered. Results that finish out
+	 * of order wait in a reorder buffer; arguments more than `window` places ahead of the
+	 * oldest undelivered one are not scheduled, so the buffer never holds more than
+	 * `window` results. Ordered callbacks are never invoked concurrently with each other.
+	 * Register streams before adding arguments.
+	 */
+	public ProcessingTaskSet<A,R> streamOrdered(int window, ProcessingTaskSetEachCallback<A,R> callback) {
+		reorderWindow = Math.max(1, window);
+		orderedStreams.add(callback);
+		return this;
+	}
+	
+	/** Finish the set as soon as the first n arguments have finished. Results of arguments
+	 * finishing after that are discarded, as with stop(). */
+	public ProcessingTaskSet<A,R> limit(long n) {
+		this.limit = Math.max(1, n);
+		return this;
+	}
+	
+	public long limit() {
+		return limit;
+	}
+	
+	/** Invoke a callback with the first n results, in the order they finished, and then
+	 * finish the set. If fewer than n arguments are processed, the callback receives all of
+	 * them once the set is done. */
+	public ProcessingTaskSet<A,R> firstN(int n, ProcessingTaskSetListCallback<A,R> callback) {
+		ConcurrentLinkedDeque<R> results = new ConcurrentLinkedDeque<>();
+		return limit(n)
+			.stream((argument, result)->results.add(result))
+			.after(()->callback.call(results));
+	}
+	
+	/** Invoke a callback with the first argument to finish with a result matching the
+	 * predicate, and then finish the set. The callback is not invoked if no result
+	 * matches. */
+	public ProcessingTaskSet<A,R> anyOf(ProcessingTaskSetPredicate<A,R> predicate, ProcessingTaskSetEachCallback<A,R> callback) {
+		AtomicBoolean matched = new AtomicBoolean();
+		return stream((argument, result)->{
+			if(!predicate.call(argument, result)) return;
+			if(!matched.compareAndSet(false, true)) return;
+			
+			callback.call(argument, result);
+			stop();
+		});
+	}
+	
+	/** Invoke a callback with the first argument to finish, and then finish the set. */
+	public ProcessingTaskSet<A,R> anyOf(ProcessingTaskSetEachCallback<A,R> callback) {
+		return anyOf((argument, result)->true, callback);
+	}
+	
+	/** Finish the set without waiting for outstanding arguments. Arguments not yet
+	 * scheduled are dropped, queued tasks are purged from the WorkerPool, and running tasks
+	 * report themselves cancelled; any results they produce afterwards are discarded.
+	 * .after() callbacks then run on the results gathered so far.
+	 */
+	public ProcessingTaskSet<A,R> stop() {
+		if(!stopped.compareAndSet(false, true)) return this;
+		
+		backlog.clear();
+		backlogSize.set(0);
+		closeSources();
+		if(pool() != null) pool().purge(this);
+		
+		runAfters();
+		return this;
+	}
+	
+	/** True if stop() has been called, directly or by a limit or anyOf(). */
+	public boolean isStopped() {
+		return stopped.get();
+	}
+	
 	public ProcessingTaskSet<A,R> each(ProcessingTaskSetEachCallback<A,R> callback) {
+		collecting = true;
 		return after(()->{
 			for(ProcessingTask<A,R> argument : arguments) {
+				if(!argument.isFinished()) continue;
 				callback.call(argument.argument(), argument.result());
 			}
 		});
 	}
 	
 	public ProcessingTaskSet<A,R> list(ProcessingTaskSetListCallback<A,R> callback) {
+		collecting = true;
 		return after(()->{
 			LinkedList<R> results = new LinkedList<>();
 			for(ProcessingTask<A,R> argument : arguments) {
+				if(!argument.isFinished()) continue;
 				results.add(argument.result());
 			}
 			
@@ -116,9 +503,11 @@ public class ProcessingTaskSet<A,R> extends TaskSet<ProcessingTaskSet<A,R>> {
 	}
 	
 	public ProcessingTaskSet<A,R> map(ProcessingTaskSetMapCallback<A,R> callback) {
+		collecting = true;
 		return after(()->{
 			HashMap<A,R> results = new HashMap<>();
 			for(ProcessingTask<A,R> argument : arguments) {
+				if(!argument.isFinished()) continue;
 				results.put(argument.argument(), argument.result());
 			}
 			
@@ -126,13 +515,532 @@ public class ProcessingTaskSet<A,R> extends TaskSet<ProcessingTaskSet<A,R>> {
 		});
 	}
 	
+	/** Move arguments from the backlog onto the WorkerPool. Unchunked arguments are
+	 * enqueued as individual tasks. Chunks are formed lazily, with at most two chunks per
+	 * worker outstanding at once, so that adaptive sizing can react to measurements.
+	 */
+	protected void dispatch() {
+		do {
+			pullFromSources();
+			
+			// room has opened up in our backlog, so the stage feeding us may send more
+			if(dispatchBacklog() > 0 && upstream != null) {
+				upstream.dispatch();
+			}
+			
+			// someone asked for a pull while we held the sources, so take another pass
+		} while(pullWanted.get() && !pulling.get());
+	}
+	
+	/** Schedule what we can from the backlog. Returns the number of arguments scheduled. */
+	protected synchronized int dispatchBacklog() {
+		if(!isRunning()) return 0;
+		
+		int dispatched = 0;
+		if(!isChunked()) {
+			ProcessingTask<A,R> task;
+			while((task = nextFromBacklog()) != null) {
+				pool().addTask(task);
+				dispatched++;
+			}
+			
+			return dispatched;
+		}
+		
+		int maxChunks = 2 * Math.max(1, pool().workers());
+		while(!backlog.isEmpty() && chunksInFlight.get() < maxChunks) {
+			int                       size  = chunkSize();
+			ProcessingChunkTask<A,R>  chunk = new ProcessingChunkTask<>(this, size);
+			ProcessingTask<A,R>       task;
+			
+			while(chunk.size() < size && (task = nextFromBacklog()) != null) {
+				chunk.add(task);
+			}
+			
+			if(chunk.size() == 0) break;
+			chunksInFlight.incrementAndGet();
+			pool().addTask(chunk);
+			dispatched += chunk.size();
+		}
+		
+		return dispatched;
+	}
+	
+	/** Number of arguments that may be queued or running at once when drawing from a
+	 * source. */
+	protected int sourceWindow() {
+		if(maxInFlight > 0) return maxInFlight;
+		
+		int workers = Math.max(1, pool().workers());
+		return isChunked()
+		     ? workers * 2 * Math.max(2, chunkSize())
+		     : workers * SOURCE_READAHEAD_PER_WORKER;
+	}
+	
+	/** Refill an empty backlog from our sources, up to the source window. Exhausted sources
+	 * are dropped and closed, releasing the outstanding-work count they held.
+	 * 
+	 * Runs outside the set's lock, since a source may block, with one thread pulling at a
+	 * time. Threads that find another already pulling leave a request and go on without
+	 * waiting; the puller takes another pass for them once it is done. Failures and afters
+	 * are handled only after pulling has stopped. */
+	protected void pullFromSources() {
+		pullWanted.set(true);
+		if(!pulling.compareAndSet(false, true)) return;
+		pullWanted.set(false);
+		
+		Throwable failure = null;
+		boolean   drained = false;
+		try {
+			if(sources.isEmpty() || !backlog.isEmpty() || !isRunning()) return;
+			
+			int wanted = sourceWindow() - inFlight.get();
+			while(wanted > 0 && !sources.isEmpty()) {
+				Iterator<? extends A> source = sources.peek();
+				try {
+					if(source.hasNext()) {
+						if(enqueue(source.next(), null) != null) wanted--;
+						continue;
+					}
+				} catch(Throwable exc) {
+					failure = exc;
+					break;
+				}
+				
+				// stop() may have dropped it while we were reading
+				if(!sources.remove(source)) continue;
+				closeSource(source);
+				
+				if(numOutstanding.decrementAndGet() == 0) {
+					drained = true;
+					break;
+				}
+			}
+		} finally {
+			pulling.set(false);
+		}
+		
+		if(failure != null) {
+			closeSources();
+			
+			// a source closed under us by stop() is expected to fail
+			if(!isStopped()) exception(failure);
+			return;
+		}
+		
+		if(drained) runAfters();
+	}
+	
+	/** Drop every source, closing any streams behind them. */
+	protected void closeSources() {
+		Iterator<? extends A> source;
+		while((source = sources.poll()) != null) {
+			closeSource(source);
+		}
+	}
+	
+	/** Close the stream behind a source, if it has one and it is not already closed. */
+	protected void closeSource(Iterator<?> source) {
+		AutoCloseable closeable = closeables.remove(source);
+		if(closeable == null) return;
+		
+		try {
+			closeable.close();
+		} catch(Exception exc) {
+			exception(exc);
+		}
+	}
+	
+	/** Take the next argument from the backlog, unless doing so would exceed the in-flight
+	 * limit, overrun the reorder window of an ordered stream, or overfill the stage we
+	 * feed. */
+	protected ProcessingTask<A,R> nextFromBacklog() {
+		if(maxInFlight > 0 && inFlight.get() >= maxInFlight) return null;
+		if(downstream != null && downstreamLoad() >= downstreamCapacity) return null;
+		
+		if(!orderedStreams.isEmpty()) {
+			ProcessingTask<A,R> head = backlog.peek();
+			if(head == null || head.index() >= nextOrdered + reorderWindow) return null;
+		}
+		
+		ProcessingTask<A,R> task = backlog.poll();
+		if(task == null) return null;
+		
+		backlogSize.decrementAndGet();
+		inFlight.incrementAndGet();
+		return task;
+	}
+	
+	/** True if finishing an argument may allow more of the backlog to be scheduled. */
+	protected boolean isBacklogThrottled() {
+		return maxInFlight > 0
+			|| downstream != null
+			|| !orderedStreams.isEmpty()
+			|| !sources.isEmpty();
+	}
+	
+	/** Arguments between us and the end of the stage we feed: those we have in flight, plus
+	 * those the downstream set has waiting in its backlog, queued on the WorkerPool or
+	 * running. A downstream set without a maxInFlight limit moves its whole backlog onto
+	 * the pool, so its backlog alone says nothing about how far behind it is. */
+	protected int downstreamLoad() {
+		return inFlight.get() + downstream.backlogSize() + downstream.inFlight();
+	}
+	
+	/** Feed our results to another set, scheduling no more arguments while downstreamLoad()
+	 * is at `capacity`. The downstream set prompts us to dispatch again as it finishes
+	 * arguments. */
+	protected <S> void connect(ProcessingTaskSet<R,S> downstream, int capacity) {
+		this.downstream         = downstream;
+		this.downstreamCapacity = Math.max(1, capacity);
+		downstream.upstream     = this;
+	}
+	
+	/** Note a task holding a claim on the cache, so the claim can be given up if the set
+	 * finishes without the task. One finish listener covers every open claim, rather than
+	 * one per task, which would pin every task that ever claimed until the set finished. */
+	protected void claimOpened(ProcessingTask<A,R> task) {
+		openClaims.add(task);
+		if(watchingClaims.compareAndSet(false, true)) {
+			addFinishListener(()->{
+				for(ProcessingTask<A,R> open : openClaims) {
+					open.abandonClaim();
+				}
+			});
+		}
+		
+		// the listener may already have swept the claims
+		if(isFinished()) task.abandonClaim();
+	}
+	
+	/** A task's claim on the cache was fulfilled or abandoned. */
+	protected void claimClosed(ProcessingTask<A,R> task) {
+		openClaims.remove(task);
+	}
+	
+	/** Queue a failed task to run again after a delay. It remains in flight meanwhile. */
+	protected void reschedule(ProcessingTask<A,R> task, long delayMs) {
+		retries.incrementAndGet();
+		task.notBefore(Task.later(System.currentTimeMillis(), delayMs));
+		pool().addTask(task);
+	}
+	
+	/** Decide whether a task finishing now may record its result. Fails once the set has
+	 * stopped, or once the limit has been reached. */
+	protected boolean admit(ProcessingTask<A,R> task) {
+		if(stopped.get()) return false;
+		return limit <= 0 || admitted.incrementAndGet() <= limit;
+	}
+	
+	/** Pass a finished task's result to any streaming callbacks. */
+	protected void deliver(ProcessingTask<A,R> task) {
+		if(stopped.get()) return;
+		
+		for(ProcessingTaskSetEachCallback<A,R> callback : streams) {
+			invokeStream(callback, task);
+		}
+		
+		if(orderedStreams.isEmpty()) return;
+		
+		reorderBuffer.put(task.index(), task);
+		synchronized(reorderBuffer) {
+			ProcessingTask<A,R> next;
+			while((next = reorderBuffer.remove(nextOrdered)) != null) {
+				for(ProcessingTaskSetEachCallback<A,R> callback : orderedStreams) {
+					invokeStream(callback, next);
+				}
+				
+				nextOrdered++;
+			}
+		}
+	}
+	
+	protected void invokeStream(ProcessingTaskSetEachCallback<A,R> callback, ProcessingTask<A,R> task) {
+		try {
+			callback.call(task.argument(), task.result());
+		} catch(Throwable exc) {
+			exception(exc);
+		}
+	}
+	
+	/** A chunk task has returned after running its arguments. */
+	protected void finishedChunk(ProcessingChunkTask<A,R> chunk, long elapsedNs) {
+		if(chunk.size() > 0) {
+			recordItemTime((double) elapsedNs / chunk.size());
+		}
+		
+		chunksInFlight.decrementAndGet();
+		dispatch();
+	}
+	
+	/** Fold a measurement of time per argument into the moving average used for adaptive
+	 * chunk sizing. */
+	protected synchronized void recordItemTime(double sampleNs) {
+		nanosPerItem = nanosPerItem <= 0
+		             ? sampleNs
+		             : 0.75*nanosPerItem + 0.25*sampleNs;
+	}
+	
+	/** Fold results into a single value as arguments finish. Each thread that completes
+	 * arguments keeps its own partial accumulation, starting from identity, so memory is
+	 * proportional to the number of workers rather than the number of arguments. Once every
+	 * argument has finished, the partials are combined pairwise in a tree, each level in
+	 * parallel, and the result is passed to the callback before .after() callbacks run.
+	 * 
+	 * As with Stream.reduce, identity must be an identity for combiner, and accumulator and
+	 * combiner must be associative; arguments are folded in no particular order.
+	 */
+	public <U> ProcessingTaskSet<A,R> reduce(
+			U                                  identity,
+			ProcessingTaskSetAccumulator<U,R>  accumulator,
+			ProcessingTaskSetCombiner<U>       combiner,
+			ProcessingTaskSetReduceCallback<U> callback)
+	{
+		ConcurrentHashMap<Thread,ReducePartial<U>> partials = new ConcurrentHashMap<>();
+		
+		stream((argument, result)->{
+			ReducePartial<U> partial = partials.computeIfAbsent(
+					Thread.currentThread(),
+					(thread)->new ReducePartial<>(identity));
+			partial.value = accumulator.call(partial.value, result);
+		});
+		
+		finalizers.add((task)->{
+			List<U> level = new ArrayList<>();
+			for(ReducePartial<U> partial : partials.values()) {
+				level.add(partial.value);
+			}
+			
+			combineTree(level, identity, combiner, callback, task);
+		});
+		
+		return this;
+	}
+	
+	/** Group results by key. Each result is shuffled into one of `partitions` hash
+	 * partitions as soon as its argument finishes. Once every argument has finished, each
+	 * partition is grouped as its own task on the WorkerPool, and the callback is invoked
+	 * once per key with all results for that key. Callbacks for keys in different
+	 * partitions may run concurrently. All groups are delivered before .after() callbacks
+	 * run.
+	 */
+	public <K> ProcessingTaskSet<A,R> groupBy(
+			int                                  partitions,
+			ProcessingTaskSetKeyFunction<A,R,K>  key,
+			ProcessingTaskSetGroupCallback<K,R>  callback)
+	{
+		Partitioner<K,R> partitioner = new Partitioner<>(partitions);
+		stream((argument, result)->partitioner.add(key.call(argument, result), result));
+		
+		finalizers.add((task)->{
+			runPartitioned(partitioner.partitions(), (partition)->{
+				for(Map.Entry<K,Deque<R>> group : partitioner.group(partition).entrySet()) {
+					callback.call(group.getKey(), group.getValue());
+				}
+			}, null, task);
+		});
+		
+		return this;
+	}
+	
+	/** Inner hash join of this set's results with another set's results. Results from both
+	 * sets are shuffled into `partitions` hash partitions as their arguments finish. When
+	 * both sets have finished all arguments, each partition is joined as its own task on
+	 * the WorkerPool: this set's side is built into a hash table, the other set's side is
+	 * probed against it, and the callback is invoked for every matching pair.
+	 * 
+	 * Neither set runs its .after() callbacks until the join is complete, so both sets must
+	 * be run. If one set finishes without reaching the join, the other does not wait for
+	 * it forever: it is cancelled if its partner was cancelled, as when the partner's
+	 * lambda throws, and otherwise finishes without joining anything.
+	 */
+	public <B,S,K> ProcessingTaskSet<A,R> join(
+			ProcessingTaskSet<B,S>                other,
+			int                                   partitions,
+			ProcessingTaskSetKeyFunction<A,R,K>   key,
+			ProcessingTaskSetKeyFunction<B,S,K>   otherKey,
+			ProcessingTaskSetJoinCallback<K,R,S>  callback)
+	{
+		Partitioner<K,R>              left    = new Partitioner<>(partitions);
+		Partitioner<K,S>              right   = new Partitioner<>(partitions);
+		AtomicReference<SimpleTask>   waiting = new AtomicReference<>();
+		AtomicBoolean                 settled = new AtomicBoolean();
+		
+		      stream((argument, result)->left .add(key     .call(argument, result), result));
+		other.stream((argument, result)->right.add(otherKey.call(argument, result), result));
+		
+		/* Each side's finalizer checks in; whichever arrives second runs the join, then
+		 * releases both finalizers so that both sets can finish. The first to arrive also
+		 * watches its partner, in case the partner finishes without ever checking in. */
+		TaskCallback<SimpleTask> checkIn = (task)->{
+			if(waiting.compareAndSet(null, task)) {
+				TaskSet<?> owner   = task.taskset().parent(),
+				           partner = owner == this ? other : this;
+				partner.addFinishListener(()->{
+					if(!settled.compareAndSet(false, true)) return;
+					if(partner.isCancelled()) {
+						owner.cancel();
+						return;
+					}
+					
+					try {
+						task.finish();
+					} catch(TaskFinishedException exc) {}
+				});
+				
+				return;
+			}
+			
+			if(!settled.compareAndSet(false, true)) return;
+			runPartitioned(left.partitions(), (partition)->{
+				HashMap<K,Deque<R>> table = new HashMap<>(left.group(partition));
+				for(Map.Entry<K,S> entry : right.partition(partition)) {
+					Deque<R> matches = table.get(entry.getKey());
+					if(matches == null) continue;
+					
+					for(R match : matches) {
+						callback.call(entry.getKey(), match, entry.getValue());
+					}
+				}
+			}, other, waiting.get(), task);
+		};
+		
+		      finalizers.add(checkIn);
+		other.finalizers.add(checkIn);
+		return this;
+	}
+	
+	/** Run a callback for each partition index as parallel tasks, then finish the supplied
+	 * finalizer tasks. Exceptions cancel this set and, if given, a partner set. */
+	protected void runPartitioned(int partitions, PartitionCallback callback, TaskSet<?> partner, SimpleTask... finalizerTasks) {
+		SimpleTaskSet partitionSet = new SimpleTaskSet("partitions " + name).parent(this);
+		if(partner != null) {
+			partitionSet.onException((exc)->{
+				partner.cancel();
+				throw exc;
+			});
+		}
+		
+		for(int i = 0; i < partitions; i++) {
+			int partition = i;
+			partitionSet.task("partition " + i, ()->callback.call(partition));
+		}
+		
+		partitionSet
+			.after(()->{
+				for(SimpleTask finalizerTask : finalizerTasks) {
+					if(finalizerTask == null) continue;
+					try {
+						finalizerTask.finish();
+					} catch(TaskFinishedException exc) {}
+				}
+		  }).run();
+	}
+	
+	/** Combine one level of a reduction tree in parallel, then recurse on the next level
+	 * until a single value remains. */
+	protected <U> void combineTree(
+			List<U>                            level,
+			U                                  identity,
+			ProcessingTaskSetCombiner<U>       combiner,
+			ProcessingTaskSetReduceCallback<U> callback,
+			SimpleTask                         reduceTask)
+		throws Exception
+	{
+		if(level.size() <= 1) {
+			callback.call(level.isEmpty() ? identity : level.get(0));
+			reduceTask.finish();
+			return;
+		}
+		
+		List<U>       next  = new ArrayList<>(level.size()/2 + 1);
+		SimpleTaskSet round = new SimpleTaskSet("reduce " + name).parent(this);
+		
+		for(int i = 0; i + 1 < level.size(); i += 2) {
+			int slot = next.size();
+			U   left = level.get(i), right = level.get(i+1);
+			
+			next.add(null);
+			round.task(()->next.set(slot, combiner.call(left, right)));
+		}
+		
+		if(level.size() % 2 == 1) next.add(level.get(level.size() - 1));
+		
+		round
+			.after(()->combineTree(next, identity, combiner, callback, reduceTask))
+			.run();
+	}
+	
 	protected void finishedTask(ProcessingTask<A,R> task) {
-		int remaining = numOutstanding.decrementAndGet();
-		if(remaining != 0) return;
+		deliver(task);
+		inFlight.decrementAndGet();
+		
+		if(limit > 0 && delivered.incrementAndGet() == limit) {
+			stop();
+			return;
+		}
+		
+		settle(task);
+	}
+	
+	/** A task finished, but admit() refused its result. It still gives up its place in
+	 * flight and its hold on the set's outstanding work, or the set would never finish. */
+	protected void refusedTask(ProcessingTask<A,R> task) {
+		inFlight.decrementAndGet();
+		settle(task);
+	}
+	
+	/** Release a finished task's hold on the set, and either make room for more work or
+	 * wrap up the set if that was the last of it. */
+	protected void settle(ProcessingTask<A,R> task) {
+		if(!release(task)) {
+			if(isBacklogThrottled()) dispatch();
+			
+			// one less argument of ours in flight, so the stage feeding us may send another
+			if(upstream != null) upstream.dispatch();
+			return;
+		}
+		
 		runAfters();
 	}
 	
+	/** Release a finished task's hold on its parent, and so on up the chain of spawning
+	 * tasks for each one whose children have all finished. Returns true if this drained the
+	 * set's outstanding work. */
+	protected boolean release(ProcessingTask<A,R> task) {
+		while(task.disengage()) {
+			ProcessingTask<A,R> parent = task.spawnedBy;
+			if(parent == null) return numOutstanding.decrementAndGet() == 0;
+			
+			task.spawnedBy = null;
+			task           = parent;
+		}
+		
+		return false;
+	}
+	
+	/** Run finalizers, such as the final combine of a reduce(), and then .after() callbacks,
+	 * once every argument has finished. */
 	protected void runAfters() {
+		// a stop() may race with the last argument finishing
+		if(!concluded.compareAndSet(false, true)) return;
+		
+		if(finalizers.isEmpty()) {
+			runAfterCallbacks();
+			return;
+		}
+		
+		SimpleTaskSet finalizerSet = new SimpleTaskSet("finalize " + name).parent(this);
+		for(TaskCallback<SimpleTask> finalizer : finalizers) {
+			finalizerSet.task("finalize", finalizer);
+		}
+		
+		finalizerSet
+			.after(()->runAfterCallbacks())
+			.run();
+	}
+	
+	protected void runAfterCallbacks() {
 		afterTaskSet
 			.after("mark finished", ()->this.finish())
 			.run();
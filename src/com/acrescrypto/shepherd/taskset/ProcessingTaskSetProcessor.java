@@ -0,0 +1,187 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acrescrypto.shepherd.Callbacks.OpportunisticExceptionHandler;
+
+/** Exposes a ProcessingTaskSet as a Flow.Processor. Items from the upstream publisher are
+ * added as arguments, and results are published to a single downstream subscriber as it
+ * requests them.
+ * 
+ * At most `window` items are ever requested from upstream without yet having been passed
+ * downstream, whether they are in flight upstream, queued or running in the set, or
+ * waiting for downstream demand. Upstream is only asked for more as results are delivered,
+ * so memory stays bounded however slow the subscriber is.
+ * 
+ * The set is run when the upstream subscription begins, and finishes once upstream
+ * completes and every result has been produced. Results are published in the order they
+ * finish. Set any exception handler on the set before creating the processor.
+ */
+public class ProcessingTaskSetProcessor<A,R> implements Flow.Processor<A,R> {
+	protected ProcessingTaskSet<A,R>        taskset;
+	protected int                           window,
+	                                        batch;
+	protected Flow.Subscription             upstream;
+	protected Flow.Subscriber<? super R>    downstream;
+	protected ConcurrentLinkedQueue<R>      buffer   = new ConcurrentLinkedQueue<>();
+	protected AtomicLong                    demand   = new AtomicLong();
+	protected AtomicInteger                 released = new AtomicInteger(),
+	                                        draining = new AtomicInteger();
+	protected volatile boolean              completed,
+	                                        cancelled,
+	                                        terminated;
+	protected volatile Throwable            error;
+	
+	public ProcessingTaskSetProcessor(ProcessingTaskSet<A,R> taskset, int window) {
+		this.taskset = taskset;
+		this.window  = Math.max(1, window);
+		this.batch   = Math.max(1, this.window / 2);
+		
+		OpportunisticExceptionHandler handler = taskset.exceptionHandler;
+		taskset
+			.onException((exc)->{
+				fail(exc);
+				if(handler == null) throw exc;
+				handler.handle(exc);
+			})
+			.stream((argument, result)->{
+				if(result == null) throw new NullPointerException("Flow does not permit null results from " + taskset.name());
+				buffer.add(result);
+				drain();
+			})
+			.after(()->{
+				completed = true;
+				drain();
+			});
+	}
+	
+	public ProcessingTaskSet<A,R> taskset() {
+		return taskset;
+	}
+	
+	public int window() {
+		return window;
+	}
+	
+	@Override
+	public synchronized void onSubscribe(Flow.Subscription subscription) {
+		if(upstream != null) {
+			subscription.cancel();
+			return;
+		}
+		
+		// upstream may keep sending until it completes, so hold the set open until then
+		upstream = subscription;
+		taskset.hold().run();
+		subscription.request(window);
+	}
+	
+	@Override
+	public void onNext(A item) {
+		taskset.add(item);
+	}
+	
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+		taskset.cancel();
+	}
+	
+	@Override
+	public void onComplete() {
+		taskset.release();
+	}
+	
+	@Override
+	public synchronized void subscribe(Flow.Subscriber<? super R> subscriber) {
+		if(downstream != null) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {}
+				public void cancel() {}
+			});
+			subscriber.onError(new IllegalStateException("ProcessingTaskSetProcessor " + taskset.name() + " supports only one subscriber"));
+			return;
+		}
+		
+		downstream = subscriber;
+		subscriber.onSubscribe(new Flow.Subscription() {
+			public void request(long n) {
+				if(n <= 0) {
+					fail(new IllegalArgumentException("Subscription requested " + n + " items"));
+					return;
+				}
+				
+				demand.accumulateAndGet(n, (current, added)->{
+					long sum = current + added;
+					return sum < 0 ? Long.MAX_VALUE : sum;
+				});
+				drain();
+			}
+			
+			public void cancel() {
+				cancelled = true;
+				if(upstream != null) upstream.cancel();
+				taskset.stop();
+			}
+		});
+		
+		drain();
+	}
+	
+	protected void fail(Throwable exc) {
+		if(error == null) error = exc;
+		drain();
+	}
+	
+	/** Deliver what we can to the subscriber. Only one thread emits at a time; a call
+	 * arriving while another thread is emitting makes that thread loop once more. */
+	protected void drain() {
+		if(draining.getAndIncrement() != 0) return;
+		
+		do {
+			emit();
+		} while(draining.decrementAndGet() != 0);
+	}
+	
+	protected void emit() {
+		Flow.Subscriber<? super R> subscriber = downstream;
+		if(subscriber == null || terminated) return;
+		
+		if(cancelled) {
+			terminated = true;
+			buffer.clear();
+			return;
+		}
+		
+		if(error != null) {
+			terminated = true;
+			buffer.clear();
+			subscriber.onError(error);
+			return;
+		}
+		
+		R result;
+		while(demand.get() > 0 && (result = buffer.poll()) != null) {
+			demand.decrementAndGet();
+			subscriber.onNext(result);
+			replenish();
+		}
+		
+		if(completed && buffer.isEmpty()) {
+			terminated = true;
+			subscriber.onComplete();
+		}
+	}
+	
+	/** A result has left our window; ask upstream for more once enough have. */
+	protected void replenish() {
+		if(upstream == null) return;
+		if(released.incrementAndGet() < batch) return;
+		
+		int count = released.getAndSet(0);
+		if(count > 0) upstream.request(count);
+	}
+}
@@ -0,0 +1,207 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+
+/** Runs a body over the integer range [start, end) in parallel, as a replacement for
+ * splitting arrays into boxed range arguments by hand.
+ * 
+ * The range begins as a single task. That task works through its range grain by grain, and
+ * before each grain it checks whether the pool is short of queued work; if so, it splits
+ * off the upper half of what remains as a new task for an idle Worker to pick up. This is
+ * lazy binary splitting: ranges are only divided when there is someone to take the other
+ * half, so a busy pool runs large contiguous spans with no scheduling overhead.
+ * 
+ * The body always receives a contiguous [start, end) span. With align(n), every span other
+ * than the first and last begins on a multiple of n, which suits loops written against the
+ * Vector API's species length: only the ends of the range need a scalar tail.
+ */
+public class RangeTaskSet extends TaskSet<RangeTaskSet> {
+	public interface RangeCallback {
+		void call(int start, int end) throws Exception;
+	}
+	
+	public interface IndexCallback {
+		void call(int index) throws Exception;
+	}
+	
+	/** Grains per worker used to choose a grain size when none is set. */
+	public final static int GRAINS_PER_WORKER = 16;
+	
+	protected int           start,
+	                        end;
+	protected int           grain;
+	protected int           align     = 1;
+	protected RangeCallback body;
+	protected AtomicLong    remaining = new AtomicLong();
+	protected SimpleTaskSet afterTaskSet;
+	
+	public RangeTaskSet(String name) {
+		super(name);
+		afterTaskSet = new SimpleTaskSet("after").parent(this);
+	}
+	
+	/** Set the range [start, end) to iterate over. */
+	public RangeTaskSet range(int start, int end) {
+		this.start = start;
+		this.end   = Math.max(start, end);
+		return this;
+	}
+	
+	public int start() {
+		return start;
+	}
+	
+	public int end() {
+		return end;
+	}
+	
+	/** Set the body invoked on each contiguous span of the range. */
+	public RangeTaskSet body(RangeCallback body) {
+		this.body = body;
+		return this;
+	}
+	
+	/** Set a body invoked once per index in the range. */
+	public RangeTaskSet each(IndexCallback callback) {
+		return body((lo, hi)->{
+			for(int i = lo; i < hi; i++) {
+				callback.call(i);
+			}
+		});
+	}
+	
+	public RangeCallback body() {
+		return body;
+	}
+	
+	/** Largest span passed to the body in one call, and the smallest span that will be
+	 * split. 0 (the default) picks a grain from the range length and worker count. */
+	public RangeTaskSet grain(int grain) {
+		this.grain = Math.max(0, grain);
+		return this;
+	}
+	
+	public int grain() {
+		if(grain > 0) return alignUp(grain);
+		
+		long length = (long) end - start;
+		long auto   = length / (GRAINS_PER_WORKER * Math.max(1, pool().workers()));
+		return alignUp((int) Math.max(1, Math.min(Integer.MAX_VALUE / 2, auto)));
+	}
+	
+	/** Place span boundaries on multiples of the given number of indices, e.g. a vector
+	 * species length. */
+	public RangeTaskSet align(int align) {
+		this.align = Math.max(1, align);
+		return this;
+	}
+	
+	public int align() {
+		return align;
+	}
+	
+	public RangeTaskSet after(VoidCallback callback) {
+		afterTaskSet.task(callback);
+		return this;
+	}
+	
+	@Override
+	protected RangeTaskSet execute() {
+		if(body == null) throw new RuntimeException("RangeTaskSet " + name + " run without registered body");
+		
+		remaining.set((long) end - start);
+		if(start == end) {
+			runAfters();
+			return this;
+		}
+		
+		pool().addTask(new RangeTask(this, start, end));
+		return this;
+	}
+	
+	/** True if the pool looks short of work, so a split-off half would be picked up. */
+	protected boolean wantsSplit() {
+		return pool().queued() < pool().workers();
+	}
+	
+	/** Point at which to split [lo, hi), or lo if the range should not be split. */
+	protected int splitPoint(int lo, int hi, int grain) {
+		if((long) hi - lo < 2L * grain) return lo;
+		
+		int mid = alignDown(lo + (hi - lo) / 2);
+		return mid > lo && mid < hi ? mid : lo;
+	}
+	
+	/** End of the next span starting at lo, at most one grain long. */
+	protected int spanEnd(int lo, int hi, int grain) {
+		int stop = (int) Math.min(hi, (long) lo + grain);
+		int aligned = alignDown(stop);
+		return aligned > lo && stop < hi ? aligned : stop;
+	}
+	
+	protected int alignDown(int index) {
+		return Math.floorDiv(index, align) * align;
+	}
+	
+	protected int alignUp(int length) {
+		return (int) Math.min(Integer.MAX_VALUE / 2, ((long) length + align - 1) / align * align);
+	}
+	
+	/** A span of the range has been processed by the body. */
+	protected void completed(int count) {
+		if(remaining.addAndGet(-count) != 0) return;
+		runAfters();
+	}
+	
+	protected void runAfters() {
+		afterTaskSet
+			.after("mark finished", ()->this.finish())
+			.run();
+	}
+	
+	/** Processes a portion of a RangeTaskSet, splitting off work for idle Workers. */
+	public static class RangeTask extends Task<RangeTask> {
+		protected RangeTaskSet taskset;
+		protected int          lo,
+		                       hi;
+		
+		public RangeTask(RangeTaskSet taskset, int lo, int hi) {
+			super("range (" + taskset.name() + ")");
+			this.taskset = taskset;
+			this.lo      = lo;
+			this.hi      = hi;
+		}
+		
+		@Override
+		protected void execute() throws Exception {
+			int grain = taskset.grain();
+			
+			while(lo < hi) {
+				if(isCancelled()) return;
+				
+				if(taskset.wantsSplit()) {
+					int mid = taskset.splitPoint(lo, hi, grain);
+					if(mid != lo) {
+						taskset.pool().addTask(new RangeTask(taskset, mid, hi).priority(priority));
+						hi = mid;
+						continue;
+					}
+				}
+				
+				int stop = taskset.spanEnd(lo, hi, grain);
+				taskset.body().call(lo, stop);
+				
+				int count = stop - lo;
+				lo = stop;
+				taskset.completed(count);
+			}
+		}
+		
+		@Override
+		public RangeTaskSet taskset() {
+			return taskset;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acrescrypto.shepherd.exceptions.TaskFinishedException;
+import com.acrescrypto.shepherd.taskset.RecursiveTaskSet.RecursiveTaskCombiner;
+import com.acrescrypto.shepherd.taskset.RecursiveTaskSet.RecursiveTaskPairCombiner;
+import com.acrescrypto.shepherd.worker.Worker;
+
+/** One subproblem of a RecursiveTaskSet. */
+public class RecursiveTask<A,R> extends Task<RecursiveTask<A,R>> {
+	protected RecursiveTaskSet<A,R>    taskset;
+	protected RecursiveTask<A,R>       parent;
+	protected int                      slot;
+	protected A                        argument;
+	protected R                        result;
+	protected Object[]                 childResults;
+	protected AtomicInteger            pendingChildren;
+	protected RecursiveTaskCombiner<R> combiner;
+	
+	public RecursiveTask(RecursiveTaskSet<A,R> taskset, RecursiveTask<A,R> parent, int slot, A argument) {
+		super(taskset.name());
+		this.taskset  = taskset;
+		this.parent   = parent;
+		this.slot     = slot;
+		this.argument = argument;
+	}
+	
+	public A argument() {
+		return argument;
+	}
+	
+	public R result() {
+		return result;
+	}
+	
+	/** The task that split to produce this one, or null for the root. */
+	public RecursiveTask<A,R> parent() {
+		return parent;
+	}
+	
+	/** Number of splits between the root and this task. */
+	public int depth() {
+		return parent == null ? 0 : 1 + parent.depth();
+	}
+	
+	/** Finish this subproblem with a result, and stop executing the lambda. */
+	public void finish(R result) {
+		complete(result);
+		throw new TaskFinishedException();
+	}
+	
+	/** Split this subproblem into smaller ones and stop executing the lambda. Once every
+	 * subproblem has finished, the combiner is invoked with their results in the order the
+	 * arguments were given, and its return value becomes this task's result.
+	 */
+	public void split(List<A> arguments, RecursiveTaskCombiner<R> combiner) {
+		this.combiner        = combiner;
+		this.childResults    = new Object[arguments.size()];
+		this.pendingChildren = new AtomicInteger(arguments.size());
+		
+		if(arguments.isEmpty()) {
+			combine();
+			throw new TaskFinishedException();
+		}
+		
+		ArrayList<RecursiveTask<A,R>> children = new ArrayList<>(arguments.size());
+		for(A argument : arguments) {
+			children.add(new RecursiveTask<>(taskset, this, children.size(), argument).priority(priority));
+		}
+		
+		// keep the first child on this worker; hand the rest to the pool
+		Worker worker = Worker.active();
+		boolean inlined = worker != null
+		               && worker.pool() == taskset.pool()
+		               && worker.continueWith(children.get(0));
+		
+		for(int i = inlined ? 1 : 0; i < children.size(); i++) {
+			taskset.pool().addTask(children.get(i));
+		}
+		
+		throw new TaskFinishedException();
+	}
+	
+	/** Split this subproblem in two. See split(List, RecursiveTaskCombiner). */
+	public void split(A left, A right, RecursiveTaskPairCombiner<R> combiner) {
+		split(Arrays.asList(left, right), (results)->combiner.call(results.get(0), results.get(1)));
+	}
+	
+	@Override
+	protected void execute() throws Exception {
+		taskset.lambda().call(this, argument);
+	}
+	
+	@Override
+	public RecursiveTaskSet<A,R> taskset() {
+		return taskset;
+	}
+	
+	protected void complete(R result) {
+		this.result = result;
+		if(!transition(FINISHED)) return;
+		
+		// drop references to subproblems so finished parts of the tree can be collected
+		this.childResults = null;
+		
+		if(parent == null) {
+			taskset.finishedRoot(result);
+		} else {
+			parent.childFinished(slot, result);
+		}
+	}
+	
+	/** A subproblem has finished. The last one to do so combines the results. */
+	protected void childFinished(int slot, R result) {
+		childResults[slot] = result;
+		if(pendingChildren.decrementAndGet() != 0) return;
+		combine();
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected void combine() {
+		if(isCancelled()) return;
+		
+		try {
+			ArrayList<R> results = new ArrayList<>(childResults.length);
+			for(Object childResult : childResults) {
+				results.add((R) childResult);
+			}
+			
+			complete(combiner.call(results));
+		} catch(TaskFinishedException exc) {
+			throw exc;
+		} catch(Throwable exc) {
+			exception(exc);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+
+/** Describes a divide-and-conquer computation. The lambda is invoked on a root argument,
+ * and for each argument either finishes with a result, or splits the argument into
+ * subproblems whose results are later combined. Joins never block: the combiner runs on
+ * whichever Worker finishes the last subproblem, and its result propagates up the tree the
+ * same way until the root finishes.
+ * 
+ * When a task splits, the first subproblem is handed back to the splitting Worker to run as
+ * soon as the current task returns, keeping it close to its parent's data; the other
+ * subproblems go to the WorkerPool for idle Workers to pick up.
+ */
+public class RecursiveTaskSet<A,R> extends TaskSet<RecursiveTaskSet<A,R>> {
+	public interface RecursiveTaskCallback<A,R> {
+		void call(RecursiveTask<A,R> task, A argument) throws Exception;
+	}
+	
+	public interface RecursiveTaskCombiner<R> {
+		R call(List<R> results) throws Exception;
+	}
+	
+	public interface RecursiveTaskPairCombiner<R> {
+		R call(R left, R right) throws Exception;
+	}
+	
+	public interface RecursiveTaskResultCallback<R> {
+		void call(R result) throws Exception;
+	}
+	
+	protected RecursiveTaskCallback<A,R>               lambda;
+	protected A                                        root;
+	protected R                                        result;
+	protected int                                      priority;
+	protected SimpleTaskSet                            afterTaskSet;
+	protected Deque<RecursiveTaskResultCallback<R>>    resultCallbacks = new ConcurrentLinkedDeque<>();
+	
+	public RecursiveTaskSet(String name) {
+		super(name);
+		afterTaskSet = new SimpleTaskSet("after").parent(this);
+	}
+	
+	public RecursiveTaskCallback<A,R> lambda() {
+		return lambda;
+	}
+	
+	/** Set the lambda invoked for the root argument and every subproblem. The lambda must
+	 * eventually call .finish(result) or .split(...) on the task it is given. */
+	public RecursiveTaskSet<A,R> lambda(RecursiveTaskCallback<A,R> lambda) {
+		this.lambda = lambda;
+		return this;
+	}
+	
+	public A root() {
+		return root;
+	}
+	
+	/** Set the argument for the top of the recursion. */
+	public RecursiveTaskSet<A,R> root(A root) {
+		this.root = root;
+		return this;
+	}
+	
+	public int priority() {
+		return priority;
+	}
+	
+	/** Set the priority of the root task, inherited by every subproblem split from it. */
+	public RecursiveTaskSet<A,R> priority(int priority) {
+		this.priority = priority;
+		return this;
+	}
+	
+	/** Result of the root task, or null if it has not finished. */
+	public R result() {
+		return result;
+	}
+	
+	/** Invoke a callback with the root result once the recursion is complete. */
+	public RecursiveTaskSet<A,R> result(RecursiveTaskResultCallback<R> callback) {
+		return after(()->callback.call(result));
+	}
+	
+	public RecursiveTaskSet<A,R> after(VoidCallback callback) {
+		afterTaskSet.task(callback);
+		return this;
+	}
+	
+	@Override
+	protected RecursiveTaskSet<A,R> execute() {
+		if(lambda == null) throw new RuntimeException("RecursiveTaskSet " + name + " run without registered lambda");
+		
+		pool().addTask(new RecursiveTask<>(this, null, 0, root).priority(priority));
+		return this;
+	}
+	
+	/** The root task has finished, along with everything beneath it. */
+	protected void finishedRoot(R result) {
+		this.result = result;
+		afterTaskSet
+			.after("mark finished", ()->this.finish())
+			.run();
+	}
+}
@@ -0,0 +1,195 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Memoizes the results of a ProcessingTaskSet lambda by argument, and may be shared by any
+ * number of sets using the same lambda. Entries are evicted least-recently-used first once
+ * maxEntries() is exceeded, and expire ttl() milliseconds after they are stored.
+ * 
+ * Concurrent requests for an argument that is already being computed do not run the lambda
+ * again. The later tasks are parked without occupying a Worker, and finish with the result
+ * once the first one does. If the first task fails, the parked tasks are requeued, and one
+ * of them computes the result instead.
+ */
+public class ResultCache<A,R> {
+	protected static class CachedResult<R> {
+		R    value;
+		long expiresAt;
+		
+		CachedResult(R value, long expiresAt) {
+			this.value     = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	protected LinkedHashMap<A,CachedResult<R>>                   entries;
+	protected HashMap<A,LinkedList<ProcessingTask<A,R>>>         computing = new HashMap<>();
+	protected int                                                maxEntries;
+	protected long                                               ttl;
+	protected AtomicLong                                         hits      = new AtomicLong(),
+	                                                             misses    = new AtomicLong(),
+	                                                             evictions = new AtomicLong(),
+	                                                             coalesced = new AtomicLong();
+	
+	public ResultCache() {
+		entries = new LinkedHashMap<A,CachedResult<R>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<A,CachedResult<R>> eldest) {
+				if(maxEntries <= 0 || size() <= maxEntries) return false;
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+	
+	public int maxEntries() {
+		return maxEntries;
+	}
+	
+	/** Limit the number of cached results. 0 (the default) means unlimited. */
+	public synchronized ResultCache<A,R> maxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		while(maxEntries > 0 && entries.size() > maxEntries) {
+			entries.remove(entries.keySet().iterator().next());
+			evictions.incrementAndGet();
+		}
+		
+		return this;
+	}
+	
+	public long ttl() {
+		return ttl;
+	}
+	
+	/** Expire results this many milliseconds after they are stored. 0 (the default) means
+	 * results do not expire. */
+	public ResultCache<A,R> ttl(long ttlMs) {
+		this.ttl = ttlMs;
+		return this;
+	}
+	
+	/** Lookups answered from the cache. */
+	public long hits() {
+		return hits.get();
+	}
+	
+	/** Lookups that ran the lambda. */
+	public long misses() {
+		return misses.get();
+	}
+	
+	/** Results dropped to stay under maxEntries(), or because they expired. */
+	public long evictions() {
+		return evictions.get();
+	}
+	
+	/** Lookups that waited on a computation already in progress, rather than running the
+	 * lambda again. */
+	public long coalesced() {
+		return coalesced.get();
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/** True if an unexpired result is cached for the argument. Does not affect LRU order or
+	 * metrics. */
+	public synchronized boolean contains(A argument) {
+		CachedResult<R> entry = entries.get(argument);
+		return entry != null && !isExpired(entry);
+	}
+	
+	/** Store a result directly. */
+	public ResultCache<A,R> put(A argument, R result) {
+		store(argument, result);
+		return this;
+	}
+	
+	public synchronized ResultCache<A,R> invalidate(A argument) {
+		entries.remove(argument);
+		return this;
+	}
+	
+	public synchronized ResultCache<A,R> clear() {
+		entries.clear();
+		return this;
+	}
+	
+	/** Called by a task before running the lambda. Returns true if the task should compute
+	 * its result, in which case it must later call fulfill() or abandon(). Otherwise, the task
+	 * has either been finished from the cache, or parked until another task computes its
+	 * result. */
+	protected boolean claim(ProcessingTask<A,R> task) {
+		CachedResult<R> entry;
+		
+		synchronized(this) {
+			entry = lookup(task.argument());
+			if(entry == null) {
+				LinkedList<ProcessingTask<A,R>> waiters = computing.get(task.argument());
+				if(waiters != null) {
+					coalesced.incrementAndGet();
+					waiters.add(task);
+					return false;
+				}
+				
+				misses.incrementAndGet();
+				computing.put(task.argument(), new LinkedList<>());
+				return true;
+			}
+		}
+		
+		hits.incrementAndGet();
+		task.complete(entry.value);
+		return false;
+	}
+	
+	/** The task that claimed an argument has its result. Store it, and finish any tasks that
+	 * were waiting on it. */
+	protected void fulfill(ProcessingTask<A,R> task, R result) {
+		for(ProcessingTask<A,R> waiter : store(task.argument(), result)) {
+			waiter.complete(result);
+		}
+	}
+	
+	/** The task that claimed an argument failed to produce a result. Requeue any tasks
+	 * waiting on it, so that one of them can try instead. */
+	protected void abandon(ProcessingTask<A,R> task) {
+		LinkedList<ProcessingTask<A,R>> waiters;
+		synchronized(this) {
+			waiters = computing.remove(task.argument());
+		}
+		
+		if(waiters == null) return;
+		for(ProcessingTask<A,R> waiter : waiters) {
+			waiter.taskset().pool().addTask(waiter);
+		}
+	}
+	
+	protected synchronized LinkedList<ProcessingTask<A,R>> store(A argument, R result) {
+		long expiresAt = ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+		entries.put(argument, new CachedResult<>(result, expiresAt));
+		
+		LinkedList<ProcessingTask<A,R>> waiters = computing.remove(argument);
+		return waiters != null ? waiters : new LinkedList<>();
+	}
+	
+	protected CachedResult<R> lookup(A argument) {
+		CachedResult<R> entry = entries.get(argument);
+		if(entry == null || !isExpired(entry)) return entry;
+		
+		entries.remove(argument);
+		evictions.incrementAndGet();
+		return null;
+	}
+	
+	protected boolean isExpired(CachedResult<R> entry) {
+		return System.currentTimeMillis() >= entry.expiresAt;
+	}
+}
@@ -0,0 +1,104 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** Decides whether a failed ProcessingTask should be run again, and how long to wait first.
+ * The delay before the nth retry is backoff() * multiplier()^(n-1), capped at maxBackoff()
+ * or, failing that, at MAX_BACKOFF, and then reduced by a random fraction of up to jitter() so that tasks failing together do
+ * not all retry together.
+ */
+public class RetryPolicy {
+	public interface RetryPredicate {
+		boolean call(Throwable exc) throws Exception;
+	}
+	
+	/** Longest delay before any retry when no maxBackoff() is set: one day. */
+	public final static long MAX_BACKOFF = TimeUnit.DAYS.toMillis(1);
+	
+	protected int            maxAttempts = 3;
+	protected long           backoff     = 100;
+	protected double         multiplier  = 2.0;
+	protected long           maxBackoff;
+	protected double         jitter;
+	protected RetryPredicate retryable   = (exc)->true;
+	
+	public int maxAttempts() {
+		return maxAttempts;
+	}
+	
+	/** Total number of times a task may run, including the first. */
+	public RetryPolicy maxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+	
+	public long backoff() {
+		return backoff;
+	}
+	
+	/** Milliseconds to wait before the first retry. */
+	public RetryPolicy backoff(long backoffMs) {
+		this.backoff = backoffMs;
+		return this;
+	}
+	
+	public double multiplier() {
+		return multiplier;
+	}
+	
+	/** Factor by which the delay grows with each further retry. */
+	public RetryPolicy multiplier(double multiplier) {
+		this.multiplier = multiplier;
+		return this;
+	}
+	
+	public long maxBackoff() {
+		return maxBackoff;
+	}
+	
+	/** Longest delay before any retry. 0 (the default) means MAX_BACKOFF. */
+	public RetryPolicy maxBackoff(long maxBackoffMs) {
+		this.maxBackoff = maxBackoffMs;
+		return this;
+	}
+	
+	public double jitter() {
+		return jitter;
+	}
+	
+	/** Fraction, from 0 to 1, by which each delay may be randomly shortened. */
+	public RetryPolicy jitter(double jitter) {
+		this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+		return this;
+	}
+	
+	/** Only retry failures for which the predicate returns true. By default, every failure
+	 * is retried. A predicate that throws is treated as returning false. */
+	public RetryPolicy retryIf(RetryPredicate retryable) {
+		this.retryable = retryable;
+		return this;
+	}
+	
+	/** True if a task that has run `attempts` times and then failed with `exc` should run
+	 * again. */
+	public boolean shouldRetry(Throwable exc, int attempts) {
+		if(attempts >= maxAttempts) return false;
+		
+		try {
+			return retryable.call(exc);
+		} catch(Throwable predicateExc) {
+			return false;
+		}
+	}
+	
+	/** Milliseconds to wait before running a task again, after it has run `attempts`
+	 * times. */
+	public long delayFor(int attempts) {
+		double delay = backoff * Math.pow(multiplier, Math.max(0, attempts - 1));
+		delay = Math.min(delay, maxBackoff > 0 ? maxBackoff : MAX_BACKOFF);
+		if(jitter     > 0) delay *= 1.0 - jitter * ThreadLocalRandom.current().nextDouble();
+		
+		return (long) delay;
+	}
+}
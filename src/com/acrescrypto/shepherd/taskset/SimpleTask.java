@@ -1,17 +1,31 @@
 package com.acrescrypto.shepherd.taskset;
 
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.acrescrypto.shepherd.Callbacks.TaskCallback;
 import com.acrescrypto.shepherd.Callbacks.VoidCallback;
+import com.acrescrypto.shepherd.core.SignalHub.SignalCallback;
 import com.acrescrypto.shepherd.exceptions.TaskFinishedException;
 
 /** Describes a task that accepts no arguments and produces no return value, and runs
  * as part of a SimpleTaskSet. */
 public class SimpleTask extends Task<SimpleTask> {
+	protected final static int RUNNING    = 0;
+	protected final static int SUSPENDING = 1;
+	protected final static int SUSPENDED  = 2;
+	protected final static int RESUMING   = 3;
+	
 	protected TaskCallback<SimpleTask> lambda;
 	protected SimpleTaskSet            taskset;
 	protected boolean                  important;
-	protected boolean                  finished;
 	protected boolean                  after;
+	protected SimpleTask               fused;
+	protected volatile int             step;
+	protected volatile Object          resumedValue;
+	protected volatile Throwable       resumedException;
+	protected AtomicInteger            suspension = new AtomicInteger(RUNNING);
 	
 	/** Construct a SimpleTask from a SimpleTaskCallback. This callback received a reference
 	 * to the new SimpleTask itself. The lambda is expected to asynchronously indicate
@@ -43,21 +57,45 @@ public class SimpleTask extends Task<SimpleTask> {
 		};
 	}
 	
+	/** Execute this task, followed by any tasks fused onto it by the owning
+	 * SimpleTaskSet while it ran. The Worker's active task stays pointed at this task for
+	 * the whole chain, so successors are fused back onto this one and the chain is
+	 * iterated here rather than recursed. */
+	@Override
+	public SimpleTask run() {
+		super.run();
+		parkIfSuspended();
+		
+		SimpleTask next;
+		while((next = fused) != null) {
+			fused = null;
+			next.run();
+		}
+		
+		return this;
+	}
+	
 	@Override
 	protected void execute() throws Exception {
 		lambda.call(this);
 	}
+	
+	/** Queue a task to run on this task's thread as soon as this task's lambda returns.
+	 * Only called from the thread executing this task.
+	 * 
+	 * @return false if another task is already fused here, or the task is not ready.
+	 */
+	protected boolean fuseNext(SimpleTask next) {
+		if(fused != null || !next.ready()) return false;
+		fused = next;
+		return true;
+	}
 
 	@Override
 	public SimpleTaskSet taskset() {
 		return taskset;
 	}
 	
-	/** True when this task has completed execution of its lambda. */
-	public boolean isFinished() {
-		return finished;
-	}
-	
 	/** True when this task is marked important */
 	public boolean isImportant() {
 		return important;
@@ -78,8 +116,7 @@ public class SimpleTask extends Task<SimpleTask> {
 	 * it has finished.
 	 */
 	public void finish() {
-		this.finished = true;
-		taskset.finishedTask(this);
+		if(transition(FINISHED)) taskset.finishedTask(this);
 		throw new TaskFinishedException();
 	}
 	
@@ -90,7 +127,7 @@ public class SimpleTask extends Task<SimpleTask> {
 	 * Parallel Tasks already scheduled onto Workers will not be interrupted.
 	 */
 	public SimpleTask yield() {
-		this.finished = true;
+		transition(FINISHED);
 		taskset.yield();
 		throw new TaskFinishedException();
 	}
@@ -103,6 +140,110 @@ public class SimpleTask extends Task<SimpleTask> {
 		throw new TaskFinishedException();
 	}
 	
+	/** Current step of this task. Starts at 0; lambdas that suspend can set the step
+	 * before suspending and switch on it when they are resumed. */
+	public int step() {
+		return step;
+	}
+	
+	/** Set the step this task resumes at. */
+	public SimpleTask step(int step) {
+		this.step = step;
+		return this;
+	}
+	
+	/** True while this task is waiting to be resumed and holds no Worker. */
+	public boolean isSuspended() {
+		return suspension.get() != RUNNING;
+	}
+	
+	/** Value delivered when this task was last resumed: the result of a future, the
+	 * argument of a signal or the awaited TaskSet. If the future failed, its exception
+	 * is thrown here instead. */
+	@SuppressWarnings("unchecked")
+	public <V> V resumed() throws Exception {
+		Throwable exc = resumedException;
+		if(exc instanceof Exception) throw (Exception) exc;
+		if(exc instanceof Error)     throw (Error)     exc;
+		if(exc != null)              throw new RuntimeException(exc);
+		
+		return (V) resumedValue;
+	}
+	
+	/** Causes execution of this task to cease without finishing it, releasing its Worker.
+	 * The lambda is invoked again on any Worker once the future completes, with the
+	 * outcome available from resumed(). */
+	public SimpleTask suspendUntil(CompletionStage<?> future) {
+		suspend();
+		future.whenComplete((value, exc)->{
+			if(exc instanceof CompletionException && exc.getCause() != null) {
+				exc = exc.getCause();
+			}
+			
+			resume(value, exc);
+		});
+		throw new TaskFinishedException();
+	}
+	
+	/** Causes execution of this task to cease without finishing it, releasing its Worker
+	 * until the given TaskSet finishes or is cancelled. resumed() returns the TaskSet. */
+	public SimpleTask suspendUntil(TaskSet<?> set) {
+		suspend();
+		set.addFinishListener(()->resume(set, null));
+		throw new TaskFinishedException();
+	}
+	
+	/** Causes execution of this task to cease without finishing it, releasing its Worker
+	 * until the signal is next received. resumed() returns the signal's argument. */
+	public SimpleTask suspendUntilSignal(String signal) {
+		suspend();
+		taskset().pool().program().hub().handle(signal, resumeOnSignal());
+		throw new TaskFinishedException();
+	}
+	
+	/** Causes execution of this task to cease without finishing it, releasing its Worker
+	 * until the signal is next received with the given argument. */
+	public SimpleTask suspendUntilSignal(String signal, Object argument) {
+		suspend();
+		taskset().pool().program().hub().handle(signal, argument, resumeOnSignal());
+		throw new TaskFinishedException();
+	}
+	
+	protected SignalCallback resumeOnSignal() {
+		AtomicInteger fired = new AtomicInteger();
+		return (signal)->{
+			signal.registration().cancel();
+			if(fired.getAndIncrement() > 0) return;
+			resume(signal.argument(), null);
+		};
+	}
+	
+	protected void suspend() {
+		if(!suspension.compareAndSet(RUNNING, SUSPENDING)) {
+			throw new RuntimeException("Task " + name() + " is already suspended");
+		}
+	}
+	
+	/** Requeue this task once it is both parked and resumed. Whichever of the Worker
+	 * unwinding the lambda and the resuming callback arrives last does the requeue, so
+	 * the task never runs on two Workers at once. */
+	protected void resume(Object value, Throwable exc) {
+		resumedValue     = value;
+		resumedException = exc;
+		
+		if(suspension.compareAndSet(SUSPENDING, RESUMING)) return;
+		if(suspension.compareAndSet(SUSPENDED,  RUNNING )) {
+			taskset().pool().addTask(this);
+		}
+	}
+	
+	protected void parkIfSuspended() {
+		if(suspension.compareAndSet(SUSPENDING, SUSPENDED)) return;
+		if(suspension.compareAndSet(RESUMING,   RUNNING  )) {
+			taskset().pool().addTask(this);
+		}
+	}
+	
 	/** Mark this task as important. Non-important tasks can only run when all parallel
 	 * important tasks have invoked their .bootstrapped method.
 	 */
@@ -125,9 +266,9 @@ public class SimpleTask extends Task<SimpleTask> {
 	@Override
 	public boolean isCancelled() {
 		if(after) {
-			return cancelled || taskset.isCancelled();
+			return hasState(CANCELLED) || taskset.isCancelled();
 		} else {
-			return cancelled || taskset.isFinished();
+			return hasState(CANCELLED) || taskset.isFinished();
 		}
 	}
 	
@@ -1,14 +1,18 @@
 package com.acrescrypto.shepherd.taskset;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.acrescrypto.shepherd.Callbacks.TaskCallback;
 import com.acrescrypto.shepherd.Callbacks.VoidCallback;
 import com.acrescrypto.shepherd.core.SignalHub.SignalRegistration.SignalMessage;
+import com.acrescrypto.shepherd.worker.Worker;
 
 /** Describes a set of simple tasks, with no return value or argument. These tasks may
  * run in parallel (.task), or be gated to run only after all previous tasks have been
@@ -26,13 +30,22 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 	protected Deque<Deque<SimpleTask>> allTasks  = new ConcurrentLinkedDeque<>();
 	protected Deque<Deque<SimpleTask>> tasks     = new ConcurrentLinkedDeque<>();
 	protected Deque<SimpleTask>        after     = new ConcurrentLinkedDeque<>();
-	protected AtomicInteger            pendingRegistrations;
+	protected volatile AtomicInteger   pendingRegistrations;
+	protected AtomicInteger            retainedTasks = new AtomicInteger();
+	protected AtomicLong               numTasks      = new AtomicLong(),
+	                                   numFinished   = new AtomicLong();
+	protected int                      retention     = -1;
+	protected boolean                  inline    = true;
+	protected boolean                  fuse;
 	
 	public SimpleTaskSet(String name) {
 		super(name);
 	}
 	
-	/** List all tasks performed in this taskset, including finished ones.
+	/** List all tasks performed in this taskset, including finished ones, subject to the
+	 * retention policy. Under retainLast() or retainNone(), the oldest tasks are dropped from
+	 * this history so that they can be collected; use taskCount() and finishedTaskCount()
+	 * for totals.
 	 * @return A list of lists. The outer list represents task groups, and contains lists of
 	 * tasks that may run in parallel. Each task within a given list must complete before the
 	 * next list of tasks may begin.
@@ -41,6 +54,41 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 		return allTasks;
 	}
 	
+	/** Total number of tasks ever added to this set with .task() or .then(), including
+	 * tasks no longer retained in tasks(). */
+	public long taskCount() {
+		return numTasks.get();
+	}
+	
+	/** Total number of tasks in this set that have invoked .finish(). */
+	public long finishedTaskCount() {
+		return numFinished.get();
+	}
+	
+	/** Maximum number of tasks kept in tasks(), or -1 if all tasks are kept. */
+	public int retention() {
+		return retention;
+	}
+	
+	/** Keep every task ever added in tasks(). This is the default. */
+	public SimpleTaskSet retainAll() {
+		this.retention = -1;
+		return this;
+	}
+	
+	/** Keep only the most recently added maxTasks tasks in tasks(). Older tasks and emptied
+	 * gates are dropped from the history once they are no longer needed for scheduling. */
+	public SimpleTaskSet retainLast(int maxTasks) {
+		this.retention = maxTasks;
+		pruneHistory();
+		return this;
+	}
+	
+	/** Keep no history in tasks(). Tasks are referenced only until they are scheduled. */
+	public SimpleTaskSet retainNone() {
+		return retainLast(0);
+	}
+	
 	/** List tasks scheduled to be performed in this task set, not including finished tasks,
 	 * or tasks that are presently scheduled onto a Worker.
 	 * @return A list of lists. The outer list represents task groups, and contains lists of
@@ -51,6 +99,36 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 		return tasks;
 	}
 	
+	/** True if a Worker that unlocks the next gate may run one of the newly-unlocked tasks
+	 * itself instead of sending it through the pool queue. */
+	public boolean inline() {
+		return inline;
+	}
+	
+	/** Enable or disable inline continuation of the next gate on the completing Worker.
+	 * Enabled by default. */
+	public SimpleTaskSet inline(boolean inline) {
+		this.inline = inline;
+		return this;
+	}
+	
+	/** True if consecutive single-task gates are fused into one worker execution. */
+	public boolean fuse() {
+		return fuse;
+	}
+	
+	/** Fuse consecutive single-task gates. When a task finishes synchronously and the gate
+	 * it clears holds exactly one task, that task is run directly by the finishing task's
+	 * run loop, without visiting the pool or the Worker. A long serial chain of .then()
+	 * calls then runs as one worker execution. Fused chains are not subject to the pool's
+	 * inline depth, so a fused set can hold a Worker for as long as its chain lasts.
+	 * Disabled by default.
+	 */
+	public SimpleTaskSet fuse(boolean fuse) {
+		this.fuse = fuse;
+		return this;
+	}
+	
 	/** Perform a task with no arguments. May run in parallel with other tasks defined
 	 * in this SimpleTaskSet. */
 	public SimpleTaskSet task(TaskCallback<SimpleTask> lambda) {
@@ -80,7 +158,14 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 	public SimpleTaskSet task(SimpleTask task) {
 		if(tasks.isEmpty()) gate();
 		tasks   .getLast().add(task);
-		allTasks.getLast().add(task);
+		numTasks.incrementAndGet();
+		
+		if(retention != 0) {
+			allTasks.getLast().add(task);
+			retainedTasks.incrementAndGet();
+			pruneHistory();
+		}
+		
 		return this;
 	}
 	
@@ -253,7 +338,7 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 	
 	/** Immediately stop processing all further tasks. */
 	public SimpleTaskSet yield() {
-		if(finished) return this;
+		if(hasState(FINISHED)) return this;
 		enqueueAfterTasks();
 		return this;
 	}
@@ -274,15 +359,43 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 	public SimpleTaskSet gate() {
 		tasks.add(new ConcurrentLinkedDeque<>());
 		allTasks.add(new ConcurrentLinkedDeque<>());
+		pruneHistory();
 		return this;
 	}
 	
 	/** A SimpleTask has completed its lambda. */
 	protected SimpleTaskSet finishedTask(SimpleTask task) {
+		numFinished.incrementAndGet();
 		checkQueue();
 		return this;
 	}
 	
+	/** Drop the oldest tasks from tasks() until the retention limit is met, along with any
+	 * leading gates left empty. The newest gate is always kept, since .task() appends to it.
+	 */
+	protected void pruneHistory() {
+		if(retention < 0) return;
+		
+		synchronized(allTasks) {
+			while(retainedTasks.get() > retention) {
+				Deque<SimpleTask> oldest = allTasks.peekFirst();
+				if(oldest == null) break;
+				
+				if(oldest.pollFirst() != null) {
+					retainedTasks.decrementAndGet();
+				} else if(allTasks.size() > 1) {
+					allTasks.pollFirst();
+				} else {
+					break;
+				}
+			}
+			
+			while(allTasks.size() > 1 && allTasks.peekFirst().isEmpty()) {
+				allTasks.pollFirst();
+			}
+		}
+	}
+	
 	/** Check to see if we've finished all the needed tasks to clear the next gate and
 	 * unlock the next set of tasks in this SimpleTaskSet, if any.
 	 */
@@ -303,21 +416,28 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 		if(isFinished())                 return;
 		if(!isCurrentGateComplete())     return;
 		
+		Collection<SimpleTask> currentGroup;
 		synchronized(this) {
 			if(!isCurrentGateComplete()) return;
 			try { tasks.pop(); } catch(NoSuchElementException exc) {}
-			enqueueNextTier();
+			currentGroup = nextTier();
 		}
+		
+		enqueueTier(currentGroup);
 	}
 	
 	/** Add all queued tasks up to the next gate. */ 
-	protected synchronized void enqueueNextTier() {
-		PriorityQueue<SimpleTask> currentGroup = nextGroup();
-		
-		if(currentGroup == null) {
-			enqueueAfterTasks();
-			return;
-		}
+	protected void enqueueNextTier() {
+		enqueueTier(nextTier());
+	}
+	
+	/** Select the tasks up to the next gate and reset the count of important tasks that
+	 * must register before the rest may run. Clearing a gate and selecting the group behind
+	 * it must happen under the monitor, so that of several tasks finishing at once only one
+	 * advances the queue. */
+	protected synchronized Collection<SimpleTask> nextTier() {
+		Collection<SimpleTask> currentGroup = nextGroup();
+		if(currentGroup == null) return null;
 		
 		int numImportant = 0;
 		for(SimpleTask task : currentGroup) {
@@ -325,19 +445,80 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 		}
 		
 		pendingRegistrations = new AtomicInteger(numImportant);
-		enqueueTasksByImportance(currentGroup, numImportant != 0);
+		return currentGroup;
 	}
 	
-	protected synchronized void enqueueTasksByImportance(PriorityQueue<SimpleTask> currentGroup, boolean importance) {
+	/** Hand a group selected by nextTier() to the WorkerPool, or finish the set if there
+	 * is none. Needs no lock: the group's tasks are not finished until they are scheduled
+	 * here, so no other thread can clear the gate in the meantime. */
+	protected void enqueueTier(Collection<SimpleTask> currentGroup) {
+		if(currentGroup == null) {
+			enqueueAfterTasks();
+			return;
+		}
+		
+		enqueueTasksByImportance(currentGroup, pendingRegistrations.get() != 0);
+	}
+	
+	protected void enqueueTasksByImportance(Collection<SimpleTask> currentGroup, boolean importance) {
 		if(currentGroup == null) return;
+		
+		if(fuse && currentGroup.size() == 1) {
+			SimpleTask task = currentGroup.iterator().next();
+			if(task.isImportant() == importance && continueFused(task)) return;
+		}
+		
+		/* Hand the highest-priority eligible task to the completing worker. Iteration order
+		 * of the group is not priority order once the importance filter skips entries, so
+		 * find it explicitly. */
+		SimpleTask inlined = null;
+		if(inline) {
+			for(SimpleTask task : currentGroup) {
+				if(task.isImportant() != importance) continue;
+				if(inlined == null || task.compareTo(inlined) < 0) inlined = task;
+			}
+			
+			if(inlined != null && !continueInline(inlined)) inlined = null;
+		}
+		
 		for(SimpleTask task : currentGroup) {
 			if(task.isImportant() != importance) continue;
+			if(task == inlined)                  continue;
+			
 			pool().addTask(task);
 		}
 	}
 	
-	/** Get the next list of tasks to be performed. */
-	protected synchronized PriorityQueue<SimpleTask> nextGroup() {
+	/** Try to hand a task directly to the Worker that is currently executing one of our
+	 * tasks, so that it runs as soon as that task returns.
+	 */
+	protected boolean continueInline(SimpleTask task) {
+		Worker worker = Worker.active();
+		if(worker                        == null)   return false;
+		if(worker.pool()                 != pool()) return false;
+		if(worker.activeTask()           == null)   return false;
+		if(worker.activeTask().taskset() != this)   return false;
+		
+		return worker.continueWith(task);
+	}
+	
+	/** Try to chain a task onto the run loop of the SimpleTask currently executing on this
+	 * thread. This only succeeds when the gate was cleared synchronously from inside one
+	 * of our own tasks.
+	 */
+	protected boolean continueFused(SimpleTask task) {
+		Worker worker = Worker.active();
+		if(worker == null) return false;
+		
+		Task<?> active = worker.activeTask();
+		if(!(active instanceof SimpleTask)) return false;
+		if(active.taskset() != this)        return false;
+		
+		return ((SimpleTask) active).fuseNext(task);
+	}
+	
+	/** Get the next list of tasks to be performed, in priority order. */
+	protected synchronized Collection<SimpleTask> nextGroup() {
 		Deque<SimpleTask> rawGroup = tasks.peek();
 		
 		while(rawGroup != null && rawGroup.isEmpty()) {
@@ -347,13 +528,15 @@ public class SimpleTaskSet extends TaskSet<SimpleTaskSet> {
 		
 		if(rawGroup == null) return null;
 		
+		// a lone task needs no ordering, so skip building a heap for serial chains
+		if(rawGroup.size() == 1) return Collections.singletonList(rawGroup.getFirst());
 		return new PriorityQueue<>(rawGroup);
 	}
 	
 	/** Add all aftertasks to task queue, and mark this set as finished. */
-	protected synchronized void enqueueAfterTasks() {
-		if(finished) return;
-		finished = true;
+	protected void enqueueAfterTasks() {
+		if(!transition(FINISHED)) return;
+		token.finish();
 		
 		for(SimpleTask task : after) {
 			pool().addTask(task);
@@ -1,12 +1,28 @@
 package com.acrescrypto.shepherd.taskset;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 import com.acrescrypto.shepherd.exceptions.TaskFinishedException;
 
 /** Describes a task to be performed. This class must be subclassed to be made useful. */
 public abstract class Task<T extends Task<?>> implements Comparable<Task<?>> {
+	/** Bits of the lifecycle state word. Bits are only ever set, never cleared. */
+	protected final static int       CANCELLED = 1 << 0,
+	                                 FINISHED  = 1 << 1;
+	protected final static VarHandle STATE;
+	
+	static {
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(Task.class, "state", int.class);
+		} catch(ReflectiveOperationException exc) {
+			throw new ExceptionInInitializerError(exc);
+		}
+	}
+	
 	protected int                 priority;
 	protected long                notBefore;
-	protected boolean             cancelled;
+	protected volatile int        state;
 	protected String              name,
 	                              sourceReference;
 	protected StackTraceElement[] callstack;
@@ -72,6 +88,14 @@ public abstract class Task<T extends Task<?>> implements Comparable<Task<?>> {
 		return self();
 	}
 	
+	/** A millisecond timestamp plus a delay, saturating at Long.MAX_VALUE rather than
+	 * wrapping around into the past when the delay is very large. */
+	public static long later(long time, long delayMs) {
+		return delayMs >= Long.MAX_VALUE - time
+		     ? Long.MAX_VALUE
+		     : time + delayMs;
+	}
+	
 	/** Returns true if and only if this task is eligible to run according to its
 	 * notBefore timestamp.
 	 */
@@ -94,13 +118,35 @@ public abstract class Task<T extends Task<?>> implements Comparable<Task<?>> {
 	 * Worker. Cancelled tasks that are already assigned to a Worker may continue to execute.
 	 */
 	public T cancel() {
-		cancelled = true;
+		transition(CANCELLED);
 		return self();
 	}
 	
 	/** True if task has been cancelled, or its owning TaskSet is finished. */
 	public boolean isCancelled() {
-		return cancelled || taskset().isFinished();
+		return hasState(CANCELLED) || taskset().isFinished();
+	}
+	
+	/** True when this task has been marked finished. */
+	public boolean isFinished() {
+		return hasState(FINISHED);
+	}
+	
+	/** Atomically set bits in the state word.
+	 * @return true if this call set any of them, false if all were already set. */
+	protected boolean transition(int bits) {
+		int current;
+		do {
+			current = state;
+			if((current & bits) == bits) return false;
+		} while(!STATE.compareAndSet(this, current, current | bits));
+		
+		return true;
+	}
+	
+	/** True if all the given bits are set in the state word. */
+	protected boolean hasState(int bits) {
+		return (state & bits) == bits;
 	}
 	
 	/** Process an exception using the handler for the owning TaskSet. */
@@ -1,27 +1,49 @@
 package com.acrescrypto.shepherd.taskset;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.acrescrypto.shepherd.Callbacks.OpportunisticExceptionHandler;
+import com.acrescrypto.shepherd.Callbacks.TaskCallback;
+import com.acrescrypto.shepherd.Callbacks.VoidCallback;
 import com.acrescrypto.shepherd.exceptions.TaskSetRequiresTagException;
 import com.acrescrypto.shepherd.worker.Worker;
 import com.acrescrypto.shepherd.worker.WorkerPool;
 
 public abstract class TaskSet<T extends TaskSet<?>> {
+	/** Bits of the lifecycle state word. STARTED is set once by run(); FINISHED and
+	 * CANCELLED are only ever set, never cleared. */
+	protected final static int       STARTED   = 1 << 0,
+	                                 FINISHED  = 1 << 1,
+	                                 CANCELLED = 1 << 2;
+	protected final static VarHandle STATE;
+	
+	static {
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(TaskSet.class, "state", int.class);
+		} catch(ReflectiveOperationException exc) {
+			throw new ExceptionInInitializerError(exc);
+		}
+	}
+	
 	protected OpportunisticExceptionHandler exceptionHandler;
 	protected WorkerPool                    pool;
 	protected TaskSet<?>                    parent;
 	protected String                        name;
-	protected Map<Object,Object>            data        = new ConcurrentHashMap<>();
-	protected Map<Object,Boolean>           tags        = new ConcurrentHashMap<>();
-	protected Deque<Object>                 convenience = new ConcurrentLinkedDeque<>();
-	protected boolean                       started,
-	                                        cancelled,
-	                                        finished;
+	protected Map<Object,Object>            data            = new ConcurrentHashMap<>();
+	protected Map<Object,Boolean>           tags            = new ConcurrentHashMap<>();
+	protected Deque<Object>                 convenience     = new ConcurrentLinkedDeque<>();
+	protected Deque<VoidCallback>           finishListeners = new ConcurrentLinkedDeque<>();
+	protected CancellationToken             token           = new CancellationToken(()->notifyFinished());
+	protected volatile int                  state;
 	
 	public TaskSet(String name) {
 		this.name = name;
@@ -30,17 +52,76 @@ public abstract class TaskSet<T extends TaskSet<?>> {
 				  : null;
 	}
 	
-	public synchronized T await(long timeoutMs) throws InterruptedException, TimeoutException {
-		long deadline = System.currentTimeMillis() + timeoutMs;
+	/** Block until this set or one of its ancestors finishes or is cancelled. When called
+	 * from a Worker of this set's pool, the Worker runs other ready tasks while it waits,
+	 * rather than sitting idle. It stops doing so once less than the pool's helpCutoffMs()
+	 * remains, but a task it is already running may still carry it past the timeout.
+	 * @throws TimeoutException The set did not finish within timeoutMs milliseconds. */
+	public T await(long timeoutMs) throws InterruptedException, TimeoutException {
+		long           deadline = System.currentTimeMillis() + timeoutMs;
+		CountDownLatch latch    = new CountDownLatch(1);
+		VoidCallback   listener = ()->latch.countDown();
+		Worker         worker   = Worker.active();
+		
+		addFinishListener(listener);
+		if(worker == null || worker.pool() != pool()) {
+			if(!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+				finishListeners.remove(listener);
+				throw new TimeoutException();
+			}
+			
+			return self();
+		}
 		
-		while(!isFinished() && System.currentTimeMillis() < deadline) {
-			this.wait(timeoutMs);
+		while(latch.getCount() > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) {
+				finishListeners.remove(listener);
+				throw new TimeoutException();
+			}
+			
+			// too close to the deadline to start another task; just wait out the rest
+			if(remaining < pool().helpCutoffMs()) {
+				latch.await(remaining, TimeUnit.MILLISECONDS);
+				continue;
+			}
+			
+			// with nothing to help with, wait briefly so newly queued tasks are noticed
+			if(!worker.help(this)) {
+				latch.await(Math.min(remaining, 1), TimeUnit.MILLISECONDS);
+			}
 		}
 		
-		if(!isFinished()) throw new TimeoutException();
 		return self();
 	}
 	
+	/** Invoke a callback once this set finishes or is cancelled, including by an ancestor
+	 * finishing. The callback is invoked exactly once, immediately if the set is already
+	 * finished, on whichever thread finishes the set. */
+	public T onFinish(TaskCallback<T> callback) {
+		addFinishListener(()->callback.call(self()));
+		return self();
+	}
+	
+	/** A future completed with this set when it finishes, or cancelled if the set is
+	 * cancelled. Cancelling the future cancels the set. */
+	public CompletableFuture<T> toFuture() {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		onFinish((set)->{
+			if(isCancelled()) {
+				future.cancel(false);
+			} else {
+				future.complete(set);
+			}
+		});
+		
+		future.whenComplete((set, exc)->{
+			if(future.isCancelled()) cancel();
+		});
+		
+		return future;
+	}
+	
 	public WorkerPool pool() {
 		if(pool == null && parent != null) return parent.pool();
 		return pool;
@@ -57,9 +138,15 @@ public abstract class TaskSet<T extends TaskSet<?>> {
 	
 	public T parent(TaskSet<?> parent) {
 		this.parent = parent;
+		token.parent(parent != null ? parent.token : null);
 		return self();
 	}
 	
+	/** Finished and cancelled state of this set, as pushed down from its ancestors. */
+	public CancellationToken token() {
+		return token;
+	}
+	
 	public String name() {
 		return name;
 	}
@@ -157,31 +244,32 @@ public abstract class TaskSet<T extends TaskSet<?>> {
 	}
 	
 	public T cancel() {
-		cancelled = finished = true;
-		synchronized(this) { this.notifyAll(); }
+		transition(CANCELLED | FINISHED);
+		token.cancel();
 		return self();
 	}
 	
 	public T finish() {
-		finished = true;
-		synchronized(this) { this.notifyAll(); }
+		transition(FINISHED);
+		token.finish();
 		return self();
 	}
 	
 	public boolean isRunning() {
-		return started && !isFinished();
+		return isStarted() && !isFinished();
+	}
+	
+	/** True once run() has been called. */
+	public boolean isStarted() {
+		return hasState(STARTED);
 	}
 	
 	public boolean isCancelled() {
-		if(cancelled     ) return true;
-		if(parent != null) return parent.isCancelled();
-		return false;
+		return token.isCancelled();
 	}
 	
 	public boolean isFinished() {
-		if(finished      ) return true;
-		if(parent != null) return parent.isFinished();
-		return false;
+		return token.isFinished();
 	}
 	
 	public T push(Object item) {
@@ -193,15 +281,62 @@ public abstract class TaskSet<T extends TaskSet<?>> {
 		return convenience.pop();
 	}
 	
+	/** Start the set, unless it is already running. Concurrent callers race on the state
+	 * word, so only one of them executes the set. */
 	public T run() {
-		if(isRunning()) return self();
+		int current;
+		do {
+			current = state;
+			if((current & STARTED) != 0 && !isFinished()) return self();
+		} while(!STATE.compareAndSet(this, current, current | STARTED));
 		
-		started = true;
 		return execute();
 	}
 	
 	protected abstract T execute();
 	
+	/** Atomically set bits in the state word.
+	 * @return true if this call set any of them, false if all were already set. */
+	protected boolean transition(int bits) {
+		int current;
+		do {
+			current = state;
+			if((current & bits) == bits) return false;
+		} while(!STATE.compareAndSet(this, current, current | bits));
+		
+		return true;
+	}
+	
+	/** True if all the given bits are set in this set's own state word, ignoring
+	 * ancestors. */
+	protected boolean hasState(int bits) {
+		return (state & bits) == bits;
+	}
+	
+	protected void addFinishListener(VoidCallback listener) {
+		finishListeners.add(listener);
+		
+		// we may have finished before the listener was added
+		if(isFinished()) notifyFinished();
+	}
+	
+	/** Wake anything waiting on this set, and invoke each finish listener once. Listeners
+	 * added after this point are invoked as they are added. Invoked by our token when
+	 * this set or an ancestor finishes. */
+	protected void notifyFinished() {
+		synchronized(this) { this.notifyAll(); }
+		
+		VoidCallback listener;
+		while((listener = finishListeners.poll()) != null) {
+			try {
+				listener.call();
+			} catch(Throwable exc) {
+				WorkerPool pool = pool();
+				if(pool != null) pool.exception(exc);
+			}
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	protected T self() {
 		return (T) this;
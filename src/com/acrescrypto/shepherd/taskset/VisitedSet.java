@@ -0,0 +1,79 @@
+package com.acrescrypto.shepherd.taskset;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Objects;
+
+/** A set of values that have already been seen, split into independently locked shards so
+ * that many Workers can record visits at once without contending on a single lock. Values
+ * are only ever added; there is no removal other than clear().
+ */
+public class VisitedSet<T> {
+	/** Shards created per available processor when no shard count is given. */
+	public final static int SHARDS_PER_PROCESSOR = 4;
+	
+	protected ArrayList<HashSet<T>> shards;
+	protected int                   mask;
+	
+	public VisitedSet() {
+		this(SHARDS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+	}
+	
+	/** Create a set with at least the given number of shards, rounded up to a power of two. */
+	public VisitedSet(int numShards) {
+		int size = numShards <= 1 ? 1 : Integer.highestOneBit((numShards - 1) << 1);
+		shards   = new ArrayList<>(size);
+		mask     = size - 1;
+		
+		for(int i = 0; i < size; i++) {
+			shards.add(new HashSet<>());
+		}
+	}
+	
+	public int shards() {
+		return shards.size();
+	}
+	
+	/** Record a value as visited. Returns true if it had not been visited before. */
+	public boolean add(T value) {
+		HashSet<T> shard = shardFor(value);
+		synchronized(shard) {
+			return shard.add(value);
+		}
+	}
+	
+	public boolean contains(Object value) {
+		HashSet<T> shard = shardFor(value);
+		synchronized(shard) {
+			return shard.contains(value);
+		}
+	}
+	
+	/** Number of values visited. Not a consistent snapshot while values are being added. */
+	public long size() {
+		long size = 0;
+		for(HashSet<T> shard : shards) {
+			synchronized(shard) {
+				size += shard.size();
+			}
+		}
+		
+		return size;
+	}
+	
+	public VisitedSet<T> clear() {
+		for(HashSet<T> shard : shards) {
+			synchronized(shard) {
+				shard.clear();
+			}
+		}
+		
+		return this;
+	}
+	
+	protected HashSet<T> shardFor(Object value) {
+		int hash = Objects.hashCode(value);
+		hash ^= hash >>> 16;
+		return shards.get(hash & mask);
+	}
+}
@@ -4,6 +4,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.acrescrypto.shepherd.taskset.Task;
+import com.acrescrypto.shepherd.taskset.TaskSet;
 
 public class Worker {
 	protected static Map<Thread,Worker> WorkersByThread = new ConcurrentHashMap<>();
@@ -14,6 +15,9 @@ public class Worker {
 	
 	protected WorkerPool pool;
 	protected Task<?>    activeTask;
+	protected Task<?>    continuation;
+	protected int        inlineDepth;
+	protected int        helpDepth;
 	protected Thread     thread;
 	protected boolean    threadGroupChanged;
 	
@@ -43,6 +47,58 @@ public class Worker {
 		return activeTask;
 	}
 	
+	/** Offer a task to be run on this worker as soon as its active task returns, bypassing
+	 * the pool queue. Only one continuation may be pending at a time, and consecutive
+	 * inline runs are capped by the pool's inline depth so that a long chain cannot
+	 * monopolize this worker.
+	 * 
+	 * @return true if the worker accepted the task; false if the caller must enqueue it.
+	 */
+	public boolean continueWith(Task<?> task) {
+		if(active()     != this)                    return false;
+		if(continuation != null)                    return false;
+		if(inlineDepth  >= pool.inlineDepth())      return false;
+		if(!task.ready())                           return false;
+		if(pool.hasHigherPriorityTask(task))        return false;
+		
+		continuation = task;
+		return true;
+	}
+	
+	/** Run the next ready task from the pool on this thread while the current task waits
+	 * for the awaited set to finish. The current task's state is restored afterwards.
+	 * Awaits nest up to the pool's help depth.
+	 * 
+	 * @return true if a task was run; false if none was ready or the depth limit was hit,
+	 *   in which case the caller should block instead.
+	 */
+	public boolean help(TaskSet<?> awaited) {
+		if(active()  != this)              return false;
+		if(helpDepth >= pool.helpDepth())  return false;
+		
+		Task<?> task = pool.pollReadyTask();
+		if(task == null) return false;
+		
+		Task<?>  savedTask         = activeTask,
+		         savedContinuation = continuation;
+		int      savedInlineDepth  = inlineDepth;
+		String   savedName         = thread.getName();
+		
+		helpDepth++;
+		continuation = null;
+		try {
+			beginTask(task);
+		} finally {
+			helpDepth--;
+			activeTask   = savedTask;
+			continuation = savedContinuation;
+			inlineDepth  = savedInlineDepth;
+			thread.setName(savedName);
+		}
+		
+		return true;
+	}
+	
 	protected void threadGroupChanged() {
 		threadGroupChanged = true;
 	}
@@ -76,6 +132,18 @@ public class Worker {
 	}
 	
 	protected void beginTask(Task<?> task) {
+		/* Continuations are trampolined here rather than invoked from inside the task that
+		 * unlocked them, so inline execution never grows the stack. */
+		inlineDepth = 0;
+		while(task != null) {
+			runTask(task);
+			task         = continuation;
+			continuation = null;
+			inlineDepth++;
+		}
+	}
+	
+	protected void runTask(Task<?> task) {
 		thread.setName(task.sourceReference() + " " + task.taskset().name());
 		this.activeTask = task;
 		try {
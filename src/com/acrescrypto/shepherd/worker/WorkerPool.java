@@ -1,7 +1,9 @@
 package com.acrescrypto.shepherd.worker;
 
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.PriorityQueue;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -9,6 +11,7 @@ import java.util.concurrent.TimeoutException;
 import com.acrescrypto.shepherd.Callbacks.OpportunisticExceptionHandler;
 import com.acrescrypto.shepherd.core.Program;
 import com.acrescrypto.shepherd.taskset.Task;
+import com.acrescrypto.shepherd.taskset.TaskSet;
 
 public class WorkerPool {
 	public class WorkerLaidOffException extends Exception {
@@ -18,10 +21,19 @@ public class WorkerPool {
 	protected Program                                program;
 	protected OpportunisticExceptionHandler          exceptionHandler;
 	protected int                                    targetWorkerCount;
+	protected int                                    inlineDepth  = 16;
+	protected int                                    helpDepth    = 8;
+	protected long                                   helpCutoffMs = 10;
 	protected boolean                                workerCountVerified;
 	protected String                                 name;
-	protected LinkedList<Worker>                     workers = new LinkedList<>();
-	protected PriorityBlockingQueue<Task<?>>         tasks   = new PriorityBlockingQueue<>();
+	protected LinkedList<Worker>                     workers   = new LinkedList<>();
+	protected PriorityBlockingQueue<Task<?>>         tasks     = new PriorityBlockingQueue<>();
+	protected PriorityQueue<Task<?>>                 delayed   = new PriorityQueue<>(
+		Comparator.<Task<?>>comparingLong((task)->task.notBefore()).thenComparing((task)->task));
+	protected volatile int                           numDelayed;
+	protected volatile long                          nextDue   = Long.MAX_VALUE;
+	protected long                                   lastSweep;
+	protected long                                   sweepIntervalMs = 100;
 	protected ThreadGroup                            threadGroup;
 	
 	public WorkerPool(Program program) {
@@ -91,13 +103,94 @@ public class WorkerPool {
 		return threadGroup;
 	}
 	
+	/** Queue a task. Tasks whose notBefore time has not yet come wait in a separate queue
+	 * ordered by that time, and move to the ready queue once it passes. */
 	public WorkerPool addTask(Task<?> task) {
-		tasks.add(task);		
+		if(task.ready()) {
+			tasks.add(task);
+		} else {
+			delay(task);
+		}
+		
+		return this;
+	}
+	
+	/** True if a ready task with a strictly higher priority than the supplied task is
+	 * waiting in the queue. */
+	public boolean hasHigherPriorityTask(Task<?> task) {
+		Task<?> head = tasks.peek();
+		return head != null
+			&& head.priority() > task.priority()
+			&& head.ready();
+	}
+	
+	/** Maximum number of tasks a Worker may run back-to-back as continuations of the task
+	 * it dequeued, before further continuations go through the queue. */
+	public int inlineDepth() {
+		return inlineDepth;
+	}
+	
+	/** Set the maximum number of consecutive continuations a Worker may run inline.
+	 * Setting this to 0 disables inline continuation entirely. */
+	public WorkerPool inlineDepth(int inlineDepth) {
+		this.inlineDepth = inlineDepth;
+		return this;
+	}
+	
+	/** Maximum number of awaits a Worker may nest while running other tasks to help them
+	 * finish. Beyond this, await() simply blocks. */
+	public int helpDepth() {
+		return helpDepth;
+	}
+	
+	public WorkerPool helpDepth(int helpDepth) {
+		this.helpDepth = helpDepth;
+		return this;
+	}
+	
+	/** An await() with less than this many milliseconds left stops running other tasks
+	 * and simply blocks, since a helped task cannot be cut short when the time runs out. */
+	public long helpCutoffMs() {
+		return helpCutoffMs;
+	}
+	
+	public WorkerPool helpCutoffMs(long helpCutoffMs) {
+		this.helpCutoffMs = helpCutoffMs;
+		return this;
+	}
+	
+	/** Number of tasks waiting in the queue, ready or not. Cheaper than pending(), which
+	 * copies the queue. */
+	public int queued() {
+		return tasks.size() + numDelayed;
+	}
+	
+	/** Remove every queued task belonging to the given TaskSet, rather than leaving each one
+	 * to be dequeued and discarded. Tasks already assigned to a Worker are unaffected. */
+	public WorkerPool purge(TaskSet<?> taskset) {
+		// hold the delay queue so no task is promoted past us while we sweep both queues
+		synchronized(delayed) {
+			delayed.removeIf((task)->task.taskset() == taskset);
+			delayedChanged();
+			tasks  .removeIf((task)->task.taskset() == taskset);
+		}
+		
 		return this;
 	}
 	
+	/** Create a new ExecutorService running submissions as Tasks on this pool. Each
+	 * executor has its own shutdown lifecycle; see WorkerPoolExecutor. */
+	public WorkerPoolExecutor executor() {
+		return new WorkerPoolExecutor(this);
+	}
+	
 	public Deque<Task<?>> pending() {
-		return new LinkedList<>(tasks);
+		LinkedList<Task<?>> pending = new LinkedList<>(tasks);
+		synchronized(delayed) {
+			pending.addAll(delayed);
+		}
+		
+		return pending;
 	}
 	
 	public WorkerPool onException(OpportunisticExceptionHandler handler) {
@@ -156,21 +249,83 @@ public class WorkerPool {
 		return checkThreadCount();
 	}
 	
+	/** Take the highest-priority ready task off the queue, waiting briefly if there is
+	 * none, but no later than the next delayed task falls due. */
 	protected Task<?> dequeueTask() throws InterruptedException {
-		Task<?> task = null;
-		LinkedList<Task<?>> notReady = new LinkedList<>();
+		promoteDueTasks();
+		
+		long    waitMs = Math.max(0, Math.min(1, nextDue - System.currentTimeMillis()));
+		Task<?> task   = tasks.poll(waitMs, TimeUnit.MILLISECONDS);
+		if(task == null) {
+			sweepDelayed();
+			return null;
+		}
+		
+		if(task.ready()) return task;
+		
+		// notBefore was pushed back after the task was queued
+		delay(task);
+		return null;
+	}
+	
+	/** Take the highest-priority ready task off the queue without waiting, or null if
+	 * none is ready. Used by Workers helping while they await a set. The awaited set's own
+	 * tasks are not searched out, since that would mean copying and scanning the whole
+	 * queue for every task helped; they are run like any other once they reach the head. */
+	protected Task<?> pollReadyTask() {
+		promoteDueTasks();
+		
+		Task<?> task = tasks.poll();
+		if(task == null || task.ready()) return task;
+		
+		delay(task);
+		return null;
+	}
+	
+	protected void delay(Task<?> task) {
+		synchronized(delayed) {
+			delayed.add(task);
+			delayedChanged();
+		}
+	}
+	
+	/** Move every delayed task whose notBefore time has passed to the ready queue,
+	 * dropping cancelled ones. Costs one volatile read when nothing is due. */
+	protected void promoteDueTasks() {
+		if(System.currentTimeMillis() < nextDue) return;
 		
-		do {
-			task = tasks.poll(1, TimeUnit.MILLISECONDS);
-			if(task == null) break;
-			if(task.ready()) break;
+		synchronized(delayed) {
+			long    now = System.currentTimeMillis();
+			Task<?> head;
+			while((head = delayed.peek()) != null && head.notBefore() <= now) {
+				delayed.poll();
+				if(!head.isCancelled()) tasks.add(head);
+			}
 			
-			notReady.add(task);
-			task = null;
-		} while(!tasks.isEmpty());
+			delayedChanged();
+		}
+	}
+	
+	/** Drop cancelled tasks from the delay queue, which would otherwise wait out their
+	 * delay before being discarded. Run by idle workers, at most every sweepIntervalMs. */
+	protected void sweepDelayed() {
+		if(numDelayed == 0) return;
 		
-		tasks.addAll(notReady);
-		return task;
+		long now = System.currentTimeMillis();
+		synchronized(delayed) {
+			if(now - lastSweep < sweepIntervalMs) return;
+			lastSweep = now;
+			
+			delayed.removeIf((task)->task.isCancelled());
+			delayedChanged();
+		}
+	}
+	
+	/** Refresh the unlocked summaries of the delay queue. Call while holding it. */
+	protected void delayedChanged() {
+		Task<?> head = delayed.peek();
+		numDelayed   = delayed.size();
+		nextDue      = head == null ? Long.MAX_VALUE : head.notBefore();
 	}
 	
 	protected synchronized void workerFinished(Worker worker) {
@@ -0,0 +1,262 @@
+package com.acrescrypto.shepherd.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.acrescrypto.shepherd.taskset.DeferredTaskSet;
+import com.acrescrypto.shepherd.taskset.DelayedTask;
+import com.acrescrypto.shepherd.taskset.Task;
+
+/** Runs ExecutorService and ScheduledExecutorService submissions as Tasks on a WorkerPool,
+ * so that libraries expecting an executor can share the pool's threads rather than bringing
+ * their own. Every submission becomes a DelayedTask in a DeferredTaskSet, queued at this
+ * executor's priority() with a notBefore time for anything scheduled later; no thread is
+ * dedicated to timing.
+ * 
+ * Shutting down the executor does not affect the WorkerPool, which may have other users.
+ * Tasks delayed before shutdown() still run; periodic tasks stop. Running tasks are never
+ * interrupted, since their thread belongs to the pool.
+ */
+public class WorkerPoolExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+	/** A submission, tracked as a future, and run by whichever DelayedTask currently
+	 * represents it on the pool. */
+	protected class ExecutorTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+		protected long              time;
+		protected long              period;
+		protected DelayedTask       task;
+		protected volatile boolean  started;
+		
+		/** period is positive for a fixed rate, negative for a fixed delay, or zero for a
+		 * task that runs once. Times are in milliseconds. */
+		protected ExecutorTask(Callable<V> callable, long time, long period) {
+			super(callable);
+			this.time   = time;
+			this.period = period;
+		}
+		
+		protected ExecutorTask(Runnable runnable, V result, long time, long period) {
+			super(runnable, result);
+			this.time   = time;
+			this.period = period;
+		}
+		
+		@Override
+		public boolean isPeriodic() {
+			return period != 0;
+		}
+		
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+		
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+		}
+		
+		@Override
+		public void run() {
+			started = true;
+			if(!isPeriodic()) {
+				super.run();
+				return;
+			}
+			
+			if(!runAndReset()) return;
+			if(isShutdown()) {
+				cancel(false);
+				return;
+			}
+			
+			time = period > 0
+			     ? Task.later(time,                       period)
+			     : Task.later(System.currentTimeMillis(), -period);
+			schedule(this);
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			// the pool's threads are shared, so never interrupt them
+			boolean cancelled = super.cancel(false);
+			DelayedTask current = task;
+			if(cancelled && current != null) current.cancel();
+			
+			return cancelled;
+		}
+		
+		@Override
+		protected void done() {
+			finished(this);
+		}
+	}
+	
+	protected WorkerPool                         pool;
+	protected DeferredTaskSet                    taskset;
+	protected int                                priority;
+	protected volatile boolean                   shutdown;
+	protected Map<ExecutorTask<?>,Boolean>       outstanding = new ConcurrentHashMap<>();
+	
+	public WorkerPoolExecutor(WorkerPool pool) {
+		this.pool    = pool;
+		this.taskset = new DeferredTaskSet("executor").pool(pool);
+	}
+	
+	public WorkerPool pool() {
+		return pool;
+	}
+	
+	public int priority() {
+		return priority;
+	}
+	
+	/** Priority of Tasks for subsequent submissions. */
+	public WorkerPoolExecutor priority(int priority) {
+		this.priority = priority;
+		return this;
+	}
+	
+	/** Number of submissions not yet complete, including periodic ones. */
+	public int outstanding() {
+		return outstanding.size();
+	}
+	
+	@Override
+	public void execute(Runnable command) {
+		if(command instanceof ExecutorTask) {
+			schedule((ExecutorTask<?>) command);
+			return;
+		}
+		
+		// nothing will inspect a future for a bare Runnable, so report failures to the pool
+		schedule(new ExecutorTask<Void>(()->{
+			try {
+				command.run();
+			} catch(Throwable exc) {
+				pool.exception(exc);
+			}
+		}, null, System.currentTimeMillis(), 0));
+	}
+	
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new ExecutorTask<T>(runnable, value, System.currentTimeMillis(), 0);
+	}
+	
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new ExecutorTask<T>(callable, System.currentTimeMillis(), 0);
+	}
+	
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return schedule(new ExecutorTask<Void>(command, null, deadline(delay, unit), 0));
+	}
+	
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return schedule(new ExecutorTask<V>(callable, deadline(delay, unit), 0));
+	}
+	
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if(period <= 0) throw new IllegalArgumentException("Period must be positive");
+		return schedule(new ExecutorTask<Void>(command, null, deadline(initialDelay, unit), Math.max(1, unit.toMillis(period))));
+	}
+	
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if(delay <= 0) throw new IllegalArgumentException("Delay must be positive");
+		return schedule(new ExecutorTask<Void>(command, null, deadline(initialDelay, unit), -Math.max(1, unit.toMillis(delay))));
+	}
+	
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		for(ExecutorTask<?> task : outstanding.keySet()) {
+			if(task.isPeriodic()) task.cancel(false);
+		}
+		
+		checkTerminated();
+	}
+	
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		pool.purge(taskset);
+		
+		ArrayList<Runnable> unstarted = new ArrayList<>();
+		for(ExecutorTask<?> task : outstanding.keySet()) {
+			if(task.cancel(false) && !task.started) unstarted.add(task);
+		}
+		
+		checkTerminated();
+		return unstarted;
+	}
+	
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+	
+	@Override
+	public boolean isTerminated() {
+		return shutdown && outstanding.isEmpty();
+	}
+	
+	@Override
+	public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		
+		while(!isTerminated()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) return false;
+			this.wait(remaining);
+		}
+		
+		return true;
+	}
+	
+	/** Queue a submission on the pool to run at its scheduled time. Periodic tasks come
+	 * back here after each run. */
+	protected <V> ExecutorTask<V> schedule(ExecutorTask<V> future) {
+		if(shutdown && !(future.isPeriodic() && outstanding.containsKey(future))) {
+			throw new RejectedExecutionException("WorkerPoolExecutor has been shut down");
+		}
+		
+		outstanding.put(future, true);
+		future.task = new DelayedTask("executor", taskset, future.time, (task)->future.run());
+		future.task.priority(priority);
+		pool.addTask(future.task);
+		
+		return future;
+	}
+	
+	protected void finished(ExecutorTask<?> future) {
+		outstanding.remove(future);
+		checkTerminated();
+	}
+	
+	protected void checkTerminated() {
+		if(!isTerminated()) return;
+		synchronized(this) { this.notifyAll(); }
+	}
+	
+	/** Time at which a delay from now expires. Delays too long to represent never
+	 * expire, rather than wrapping around into the past. */
+	protected long deadline(long delay, TimeUnit unit) {
+		return Task.later(System.currentTimeMillis(), Math.max(0, unit.toMillis(delay)));
+	}
+}
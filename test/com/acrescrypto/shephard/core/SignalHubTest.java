@@ -3,7 +3,12 @@ package com.acrescrypto.shephard.core;
 import static org.junit.jupiter.api.Assertions.*;
 import static com.acrescrypto.shepherd.TestTools.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -15,6 +20,7 @@ import org.junit.jupiter.api.Test;
 
 import com.acrescrypto.shepherd.core.Program;
 import com.acrescrypto.shepherd.core.SignalHub;
+import com.acrescrypto.shepherd.core.SignalPublisher;
 import com.acrescrypto.shepherd.core.SignalHub.SignalRegistration;
 import com.acrescrypto.shepherd.exceptions.SignalRegistrationCancelledException;
 
@@ -188,4 +194,111 @@ public class SignalHubTest {
 		
 		waitFor(100, ()->wrapper.get() != null && wrapper.get() instanceof RuntimeException);
 	}
+	
+	@Test
+	public void testPublisherDeliversSignalArgumentsOnDemand() {
+		ConcurrentLinkedDeque<Integer> received = new ConcurrentLinkedDeque<>();
+		AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+		
+		hub.<Integer>publisher("signal", 100).subscribe(new Flow.Subscriber<Integer>() {
+			public void onSubscribe(Flow.Subscription s) { subscription.set(s); }
+			public void onNext(Integer item)             { received.add(item);   }
+			public void onError(Throwable throwable)     {}
+			public void onComplete()                     {}
+		});
+		
+		for(int i = 0; i < 5; i++) {
+			hub.signal("signal", i);
+		}
+		
+		hub.signal("signal");
+		assertEquals(0, received.size());
+		
+		subscription.get().request(3);
+		assertEquals(Arrays.asList(0, 1, 2), new ArrayList<>(received));
+		
+		subscription.get().request(10);
+		hub.signal("signal", 5);
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), new ArrayList<>(received));
+	}
+	
+	@Test
+	public void testPublisherDropsOldestWhenBufferFull() {
+		ConcurrentLinkedDeque<Integer> received = new ConcurrentLinkedDeque<>();
+		AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+		SignalPublisher<Integer> publisher = hub.publisher("signal", 2);
+		
+		publisher.subscribe(new Flow.Subscriber<Integer>() {
+			public void onSubscribe(Flow.Subscription s) { subscription.set(s); }
+			public void onNext(Integer item)             { received.add(item);   }
+			public void onError(Throwable throwable)     {}
+			public void onComplete()                     {}
+		});
+		
+		for(int i = 0; i < 5; i++) {
+			hub.signal("signal", i);
+		}
+		
+		subscription.get().request(10);
+		assertEquals(Arrays.asList(3, 4), new ArrayList<>(received));
+		assertEquals(3, publisher.dropped());
+	}
+	
+	@Test
+	public void testPublisherCancelUnregistersHandler() {
+		AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+		hub.<Integer>publisher("signal", 2).subscribe(new Flow.Subscriber<Integer>() {
+			public void onSubscribe(Flow.Subscription s) { subscription.set(s); }
+			public void onNext(Integer item)             {}
+			public void onError(Throwable throwable)     {}
+			public void onComplete()                     {}
+		});
+		
+		assertEquals(1, hub.handlersForSignal("signal").size());
+		subscription.get().cancel();
+		assertEquals(0, hub.handlersForSignal("signal").size());
+	}
+	
+	@Test
+	public void testPublisherCancelDuringSubscribeUnregistersHandler() {
+		AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+		SignalHub racingHub = new SignalHub(program) {
+			@Override
+			public SignalRegistration handle(String signal, SignalCallback callback) {
+				// cancel after subscribe() has checked for it, but before it has the registration
+				subscription.get().cancel();
+				return super.handle(signal, callback);
+			}
+		};
+		
+		new SignalPublisher<Integer>(racingHub, "signal", 2).subscribe(new Flow.Subscriber<Integer>() {
+			public void onSubscribe(Flow.Subscription s) { subscription.set(s); }
+			public void onNext(Integer item)             {}
+			public void onError(Throwable throwable)     {}
+			public void onComplete()                     {}
+		});
+		
+		assertEquals(0, racingHub.handlersForSignal("signal").size());
+	}
+	
+	@Test
+	public void testSubscriberSignalsEachItem() {
+		ConcurrentLinkedDeque<Object> received = new ConcurrentLinkedDeque<>();
+		AtomicBoolean                 complete = new AtomicBoolean();
+		
+		hub.handle("item", (msg)->received.add(msg.argument()));
+		hub.handle("done", ()->complete.set(true));
+		
+		try(SubmissionPublisher<String> publisher = new SubmissionPublisher<>()) {
+			publisher.subscribe(hub.<String>subscriber("item").batch(2).completionSignal("done"));
+			for(int i = 0; i < 50; i++) {
+				publisher.submit("item " + i);
+			}
+		}
+		
+		waitFor(()->complete.get());
+		assertEquals(50, received.size());
+		assertEquals("item 0", received.peekFirst());
+		assertEquals("item 49", received.peekLast());
+	}
 }
@@ -0,0 +1,127 @@
+package com.acrescrypto.shepherd.taskset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CancellationTokenTest {
+	CancellationToken root,
+	                  child,
+	                  grandchild;
+	
+	@BeforeEach
+	public void beforeEach() {
+		root       = new CancellationToken();
+		child      = new CancellationToken().parent(root);
+		grandchild = new CancellationToken().parent(child);
+	}
+	
+	@Test
+	public void testStartsUnfinished() {
+		assertFalse(grandchild.isFinished());
+		assertFalse(grandchild.isCancelled());
+	}
+	
+	@Test
+	public void testFinishPropagatesToDescendants() {
+		root.finish();
+		assertTrue (grandchild.isFinished());
+		assertFalse(grandchild.isCancelled());
+	}
+	
+	@Test
+	public void testCancelPropagatesToDescendants() {
+		root.cancel();
+		assertTrue(grandchild.isFinished());
+		assertTrue(grandchild.isCancelled());
+	}
+	
+	@Test
+	public void testCancelPropagatesToDescendantsThatAlreadyFinished() {
+		child.finish();
+		root .cancel();
+		assertTrue(grandchild.isCancelled());
+	}
+	
+	@Test
+	public void testFinishDoesNotPropagateUpward() {
+		grandchild.cancel();
+		assertFalse(child.isFinished());
+		assertFalse(root .isFinished());
+	}
+	
+	@Test
+	public void testInheritsStateWhenAttachedToFinishedParent() {
+		CancellationToken token = new CancellationToken();
+		root .cancel();
+		token.parent(root);
+		assertTrue(token.isCancelled());
+	}
+	
+	@Test
+	public void testDropsInheritedStateWhenDetached() {
+		root      .finish();
+		grandchild.parent(null);
+		assertFalse(grandchild.isFinished());
+	}
+	
+	@Test
+	public void testInvokesCallbackOnceWhenFinished() {
+		AtomicInteger     calls = new AtomicInteger();
+		CancellationToken token = new CancellationToken(()->calls.incrementAndGet()).parent(root);
+		
+		token.finish();
+		root .cancel();
+		assertEquals(1, calls.get());
+	}
+	
+	@Test
+	public void testInvokesCallbackOfOtherwiseUnreferencedChild() {
+		AtomicInteger calls = new AtomicInteger();
+		for(int i = 0; i < 100; i++) {
+			new CancellationToken(()->calls.incrementAndGet()).parent(root);
+		}
+		
+		System.gc();
+		root.finish();
+		assertEquals(100, calls.get());
+	}
+	
+	@Test
+	public void testFinishedChildLeavesParent() {
+		assertEquals(1, root.numChildren());
+		child.finish();
+		assertEquals(0, root.numChildren());
+		
+		CancellationToken token = new CancellationToken().cancel().parent(root);
+		assertEquals(0, root.numChildren());
+		assertTrue  (token.isCancelled());
+	}
+	
+	@Test
+	public void testCancelReachesDescendantsOfChildThatLeftParent() {
+		child.finish();
+		root .cancel();
+		assertTrue(child     .isCancelled());
+		assertTrue(grandchild.isCancelled());
+	}
+	
+	@Test
+	public void testThrowsWhenAttachedBeneathItself() {
+		assertThrows(RuntimeException.class, ()->root.parent(grandchild));
+	}
+	
+	@Test
+	public void testTaskSetFinishesWhenAncestorFinishes() {
+		SimpleTaskSet parent = new SimpleTaskSet("parent"),
+		              middle = new SimpleTaskSet("middle").parent(parent),
+		              leaf   = new SimpleTaskSet("leaf")  .parent(middle);
+		
+		parent.cancel();
+		assertTrue(leaf.isFinished());
+		assertTrue(leaf.isCancelled());
+	}
+}
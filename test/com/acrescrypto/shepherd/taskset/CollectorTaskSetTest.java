@@ -0,0 +1,131 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.acrescrypto.shepherd.core.Program;
+import com.acrescrypto.shepherd.worker.Worker;
+
+import static com.acrescrypto.shepherd.TestTools.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+public class CollectorTaskSetTest {
+	Program program;
+	
+	@BeforeEach
+	public void beforeEach() {
+		program = testProgram();
+		program.pool().workers(4);
+	}
+	
+	@AfterEach
+	public void afterEach() throws TimeoutException, InterruptedException {
+		finishProgram(program);
+	}
+	
+	@Test
+	public void testCollectsSum() throws InterruptedException, TimeoutException {
+		long sum = CollectorTaskSet.collect(
+				program.pool(),
+				LongStream.range(0, 100000).boxed(),
+				Collectors.summingLong((Long n)->n),
+				5000);
+		assertEquals(99999L * 100000L / 2, sum);
+	}
+	
+	@Test
+	public void testPreservesEncounterOrder() throws InterruptedException, TimeoutException {
+		List<Integer> expected = new ArrayList<>();
+		for(int i = 0; i < 10000; i++) {
+			expected.add(i);
+		}
+		
+		List<Integer> result = new CollectorTaskSet<Integer,Object,List<Integer>>("ordered")
+			.pool(program.pool())
+			.source(expected)
+			.collector(Collectors.toList())
+			.grain(100)
+			.run()
+			.await(5000)
+			.result();
+		
+		assertEquals(expected, result);
+	}
+	
+	@Test
+	public void testSupportsConcurrentCollectors() throws InterruptedException, TimeoutException {
+		ConcurrentMap<Integer,Long> counts = CollectorTaskSet.collect(
+				program.pool(),
+				IntStream.range(0, 10000).boxed().unordered(),
+				Collectors.groupingByConcurrent((Integer n)->n % 7, Collectors.counting()),
+				5000);
+		
+		assertEquals(7, counts.size());
+		long total = 0;
+		for(long count : counts.values()) {
+			total += count;
+		}
+		
+		assertEquals(10000, total);
+	}
+	
+	@Test
+	public void testRunsOnPoolAtConfiguredPriority() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<Integer,Boolean> priorities = new ConcurrentHashMap<>();
+		ConcurrentHashMap<Thread,Boolean>  threads    = new ConcurrentHashMap<>();
+		
+		Collector<Integer,List<Integer>,List<Integer>> recording = Collector.of(
+				ArrayList::new,
+				(list, n)->{
+					priorities.put(Worker.active().activeTask().priority(), true);
+					threads   .put(Thread.currentThread(), true);
+					list.add(n);
+				},
+				(left, right)->{
+					left.addAll(right);
+					return left;
+				});
+		
+		new CollectorTaskSet<Integer,List<Integer>,List<Integer>>("priority")
+			.pool(program.pool())
+			.priority(7)
+			.source(IntStream.range(0, 1000).boxed())
+			.collector(recording)
+			.run()
+			.await(5000);
+		
+		assertEquals(Map.of(7, true), priorities);
+		for(Thread thread : threads.keySet()) {
+			assertTrue(thread.getThreadGroup() == program.pool().threadGroup());
+		}
+	}
+	
+	@Test
+	public void testResultCallbackReceivesResult() {
+		AtomicReference<Long> result = new AtomicReference<>();
+		
+		new CollectorTaskSet<Integer,Object,Long>("callback")
+			.pool(program.pool())
+			.source(IntStream.range(0, 10).boxed())
+			.collector(Collectors.counting())
+			.result((count)->result.set(count))
+			.run();
+		
+		waitFor(()->result.get() != null);
+		assertEquals(10L, result.get());
+	}
+}
@@ -0,0 +1,53 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Deque;
+import java.util.Map;
+
+public class PartitionerTest {
+	@Test
+	public void testSameKeyAlwaysLandsInSamePartition() {
+		Partitioner<String,Integer> partitioner = new Partitioner<>(8);
+		for(int i = 0; i < 100; i++) {
+			partitioner.add("key " + (i % 10), i);
+		}
+		
+		for(int p = 0; p < partitioner.partitions(); p++) {
+			for(Map.Entry<String,Integer> entry : partitioner.partition(p)) {
+				assertEquals(p, partitioner.partitionFor(entry.getKey()));
+			}
+		}
+	}
+	
+	@Test
+	public void testGroupCollectsValuesByKey() {
+		Partitioner<Integer,Integer> partitioner = new Partitioner<>(1);
+		for(int i = 0; i < 30; i++) {
+			partitioner.add(i % 3, i);
+		}
+		
+		Map<Integer,Deque<Integer>> groups = partitioner.group(0);
+		assertEquals(3, groups.size());
+		for(Deque<Integer> group : groups.values()) {
+			assertEquals(10, group.size());
+		}
+	}
+	
+	@Test
+	public void testAcceptsNullKeys() {
+		Partitioner<Object,Integer> partitioner = new Partitioner<>(4);
+		partitioner.add(null, 1);
+		
+		int p = partitioner.partitionFor(null);
+		assertTrue(partitioner.group(p).containsKey(null));
+	}
+	
+	@Test
+	public void testAlwaysHasAtLeastOnePartition() {
+		assertEquals(1, new Partitioner<Object,Object>(0).partitions());
+	}
+}
@@ -0,0 +1,195 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.acrescrypto.shepherd.core.Program;
+import static com.acrescrypto.shepherd.TestTools.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PrimitiveProcessingTaskSetTest {
+	Program program;
+	
+	@BeforeEach
+	public void beforeEach() {
+		program = testProgram();
+		program.pool().workers(4);
+	}
+	
+	@AfterEach
+	public void afterEach() throws TimeoutException, InterruptedException {
+		finishProgram(program);
+	}
+	
+	@Test
+	public void testIntSetProcessesEveryArgument() throws InterruptedException, TimeoutException {
+		IntProcessingTaskSet taskset = new IntProcessingTaskSet("ints").pool(program.pool());
+		for(int i = 0; i < 1000; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.lambda((x)->x * x)
+			.run()
+			.await(1000);
+		
+		for(int i = 0; i < 1000; i++) {
+			assertEquals(i*i, taskset.result(i));
+		}
+	}
+	
+	@Test
+	public void testLongSetListsResultsInInsertionOrder() throws InterruptedException, TimeoutException {
+		AtomicBoolean inOrder = new AtomicBoolean();
+		
+		new LongProcessingTaskSet("longs")
+			.pool(program.pool())
+			.add(new long[] { 5, 4, 3, 2, 1 })
+			.lambda((x)->2*x)
+			.list((results)->{
+				inOrder.set(results.length == 5
+						 && results[0] == 10
+						 && results[4] ==  2);
+		  }).run()
+			.await(1000);
+		
+		assertTrue(inOrder.get());
+	}
+	
+	@Test
+	public void testDoubleSetInvokesEachForEveryArgument() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		DoubleProcessingTaskSet taskset = new DoubleProcessingTaskSet("doubles").pool(program.pool());
+		
+		for(int i = 0; i < 100; i++) {
+			taskset.add(0.5 * i);
+		}
+		
+		taskset
+			.chunkSize(7)
+			.lambda((x)->3.5 * x)
+			.each((arg, result)->{
+				assertEquals(3.5 * arg, result);
+				count.incrementAndGet();
+		  }).run()
+			.await(1000);
+		
+		assertEquals(100, count.get());
+	}
+	
+	@Test
+	public void testEmptySetFinishes() throws InterruptedException, TimeoutException {
+		AtomicBoolean afterRan = new AtomicBoolean();
+		
+		new IntProcessingTaskSet("empty")
+			.pool(program.pool())
+			.lambda((x)->x)
+			.after(()->afterRan.set(true))
+			.run()
+			.await(1000);
+		
+		assertTrue(afterRan.get());
+	}
+	
+	@Test
+	public void testExceptionsGoToExceptionHandler() {
+		AtomicBoolean sawException = new AtomicBoolean();
+		IntProcessingTaskSet taskset = new IntProcessingTaskSet("failing")
+			.pool(program.pool())
+			.onException((exc)->sawException.set(true))
+			.add(1, 2, 3)
+			.lambda((x)->{ throw new RuntimeException(); });
+		
+		taskset.run();
+		waitFor(()->sawException.get());
+		assertTrue(taskset.isCancelled());
+	}
+	
+	@Test
+	public void testRejectsArgumentsAfterRun() {
+		IntProcessingTaskSet taskset = new IntProcessingTaskSet("ints")
+			.pool(program.pool())
+			.add(1)
+			.lambda((x)->x)
+			.run();
+		
+		assertThrows(RuntimeException.class, ()->taskset.add(2));
+	}
+	
+	@Test
+	public void testConcurrentProducersAddEveryArgument() throws InterruptedException, TimeoutException {
+		IntProcessingTaskSet taskset    = new IntProcessingTaskSet("ints").pool(program.pool());
+		int                  numThreads = 8,
+		                     perThread  = 10000;
+		Thread[]             threads    = new Thread[numThreads];
+		
+		for(int t = 0; t < numThreads; t++) {
+			threads[t] = new Thread(()->{
+				for(int i = 0; i < perThread; i++) {
+					taskset.add(1);
+				}
+			});
+			threads[t].start();
+		}
+		
+		for(Thread thread : threads) thread.join();
+		
+		AtomicInteger sum = new AtomicInteger();
+		taskset
+			.lambda((x)->x)
+			.listInts((results)->{
+				int total = 0;
+				for(int result : results) total += result;
+				sum.set(total);
+		  }).run()
+			.await(1000);
+		
+		assertEquals(numThreads * perThread, taskset.size());
+		assertEquals(numThreads * perThread, sum.get());
+	}
+	
+	@Test
+	public void testLongSetMapsToDoubleWithoutRoundingArguments() throws InterruptedException, TimeoutException {
+		long                  big     = (1L << 60) + 7;
+		LongProcessingTaskSet taskset = new LongProcessingTaskSet("longs")
+			.pool(program.pool())
+			.add(big)
+			.mapToDouble((x)->x % 1000);
+		
+		taskset.run().await(1000);
+		assertEquals(double.class,   taskset.resultType());
+		assertEquals((double) (big % 1000), taskset.doubleResult(0));
+	}
+	
+	@Test
+	public void testIntResultsWidenToLongAndDouble() throws InterruptedException, TimeoutException {
+		DoubleProcessingTaskSet taskset = new DoubleProcessingTaskSet("doubles")
+			.pool(program.pool())
+			.add(2.75)
+			.mapToInt((x)->(int) x);
+		
+		taskset.run().await(1000);
+		assertEquals(2,   taskset.intResult   (0));
+		assertEquals(2L,  taskset.longResult  (0));
+		assertEquals(2.0, taskset.doubleResult(0));
+	}
+	
+	@Test
+	public void testReadingNarrowerResultTypeThrows() throws InterruptedException, TimeoutException {
+		IntProcessingTaskSet taskset = new IntProcessingTaskSet("ints")
+			.pool(program.pool())
+			.add(1)
+			.mapToDouble((x)->x / 2.0);
+		
+		taskset.run().await(1000);
+		assertEquals(0.5, taskset.doubleResult(0));
+		assertThrows(RuntimeException.class, ()->taskset.result(0));
+	}
+}
@@ -0,0 +1,169 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.acrescrypto.shepherd.core.Program;
+import static com.acrescrypto.shepherd.TestTools.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class ProcessingPipelineTest {
+	Program program;
+	
+	@BeforeEach
+	public void beforeEach() {
+		program = testProgram();
+		program.pool().workers(4);
+	}
+	
+	@AfterEach
+	public void afterEach() throws TimeoutException, InterruptedException {
+		finishProgram(program);
+	}
+	
+	@Test
+	public void testPassesResultsThroughEveryStage() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<String,Boolean> results = new ConcurrentHashMap<>();
+		AtomicInteger                     atAfter = new AtomicInteger();
+		
+		ProcessingPipeline<Integer,String> pipeline = new ProcessingPipeline<Integer,Integer>("pipeline")
+			.pool(program.pool())
+			.stage("double",   (n)->2 * n)
+			.stage("stringify", (n)->"#" + n);
+		
+		for(int i = 0; i < 100; i++) {
+			pipeline.add(i);
+		}
+		
+		pipeline
+			.each((result)->results.put(result, true))
+			.after(()->atAfter.set(results.size()))
+			.run()
+			.await(5000);
+		
+		assertEquals(100, results.size());
+		assertEquals(100, atAfter.get());
+		for(int i = 0; i < 100; i++) {
+			assertTrue(results.containsKey("#" + (2 * i)));
+		}
+	}
+	
+	@Test
+	public void testLaterStagesStartBeforeEarlierStagesFinish() throws InterruptedException, TimeoutException {
+		AtomicBoolean downstreamStarted = new AtomicBoolean();
+		
+		new ProcessingPipeline<Integer,Integer>("pipeline")
+			.pool(program.pool())
+			.stage("first", (n)->{
+				// the last item cannot finish until the first has reached the next stage
+				if(n == 9) waitFor(()->downstreamStarted.get());
+				return n;
+			})
+			.stage("second", (n)->{
+				downstreamStarted.set(true);
+				return n;
+			})
+			.source(IntStream.range(0, 10).boxed())
+			.run()
+			.await(5000);
+		
+		assertTrue(downstreamStarted.get());
+	}
+	
+	@Test
+	public void testSlowStageHoldsBackEarlierStages() throws InterruptedException, TimeoutException {
+		AtomicInteger upstreamStarted   = new AtomicInteger();
+		AtomicInteger downstreamStarted = new AtomicInteger();
+		AtomicInteger maxLead           = new AtomicInteger();
+		AtomicInteger count             = new AtomicInteger();
+		int           capacity          = 4;
+		
+		new ProcessingPipeline<Integer,Integer>("pipeline")
+			.pool(program.pool())
+			.capacity(capacity)
+			.stage("fast", (n)->{
+				int lead = upstreamStarted.incrementAndGet() - downstreamStarted.get();
+				maxLead.accumulateAndGet(lead, Math::max);
+				return n;
+			})
+			.stage("slow", 1, (n)->{
+				downstreamStarted.incrementAndGet();
+				Thread.sleep(1);
+				return n;
+			})
+			.each((n)->count.incrementAndGet())
+			.source(IntStream.range(0, 100).boxed())
+			.run()
+			.await(5000);
+		
+		assertEquals(100, count.get());
+		assertTrue(maxLead.get() <= capacity + 1, "upstream ran " + maxLead.get() + " ahead");
+	}
+	
+	@Test
+	public void testSlowStageWithoutConcurrencyLimitHoldsBackEarlierStages() throws InterruptedException, TimeoutException {
+		AtomicInteger upstreamStarted    = new AtomicInteger();
+		AtomicInteger downstreamFinished = new AtomicInteger();
+		AtomicInteger maxLead            = new AtomicInteger();
+		AtomicInteger count              = new AtomicInteger();
+		int           capacity           = 4;
+		
+		new ProcessingPipeline<Integer,Integer>("pipeline")
+			.pool(program.pool())
+			.capacity(capacity)
+			.stage("fast", (n)->{
+				int lead = upstreamStarted.incrementAndGet() - downstreamFinished.get();
+				maxLead.accumulateAndGet(lead, Math::max);
+				return n;
+			})
+			.stage("slow", (n)->{
+				Thread.sleep(2);
+				downstreamFinished.incrementAndGet();
+				return n;
+			})
+			.each((n)->count.incrementAndGet())
+			.source(IntStream.range(0, 100).boxed())
+			.run()
+			.await(5000);
+		
+		assertEquals(100, count.get());
+		assertTrue(maxLead.get() <= capacity + 1, "upstream ran " + maxLead.get() + " ahead");
+	}
+	
+	@Test
+	public void testExceptionInStageCancelsPipeline() {
+		AtomicBoolean handled = new AtomicBoolean();
+		
+		ProcessingPipeline<Integer,Object> pipeline = new ProcessingPipeline<Integer,Integer>("pipeline")
+			.pool(program.pool())
+			.onException((exc)->handled.set(true))
+			.stage("ok",     (n)->n)
+			.stage("broken", (n)->{ throw new RuntimeException(); })
+			.add(1)
+			.run();
+		
+		waitFor(()->handled.get());
+		assertTrue(pipeline.isCancelled());
+		for(ProcessingTaskSet<?,?> stage : pipeline.stages()) {
+			assertTrue(stage.isFinished());
+		}
+	}
+	
+	@Test
+	public void testRunWithoutStagesThrows() {
+		try {
+			new ProcessingPipeline<Integer,Integer>("pipeline").pool(program.pool()).run();
+			fail("Expected exception");
+		} catch(RuntimeException exc) {
+		}
+	}
+}
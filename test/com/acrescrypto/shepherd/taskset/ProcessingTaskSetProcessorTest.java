@@ -0,0 +1,172 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.acrescrypto.shepherd.core.Program;
+import static com.acrescrypto.shepherd.TestTools.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ProcessingTaskSetProcessorTest {
+	/** Emits consecutive integers up to a limit, synchronously, as they are requested. */
+	class RangePublisher implements Flow.Publisher<Integer> {
+		int        limit;
+		int        next;
+		AtomicLong requested = new AtomicLong();
+		
+		RangePublisher(int limit) {
+			this.limit = limit;
+		}
+		
+		public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public synchronized void request(long n) {
+					requested.addAndGet(n);
+					for(long i = 0; i < n && next < limit; i++) {
+						subscriber.onNext(next++);
+					}
+					
+					if(next == limit) {
+						next++;
+						subscriber.onComplete();
+					}
+				}
+				
+				public void cancel() {}
+			});
+		}
+	}
+	
+	class CollectingSubscriber implements Flow.Subscriber<Double> {
+		ConcurrentHashMap<Double,Boolean> results   = new ConcurrentHashMap<>();
+		AtomicBoolean                     complete  = new AtomicBoolean();
+		AtomicReference<Throwable>        error     = new AtomicReference<>();
+		Flow.Subscription                 subscription;
+		long                              initial;
+		
+		CollectingSubscriber(long initial) {
+			this.initial = initial;
+		}
+		
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if(initial > 0) subscription.request(initial);
+		}
+		
+		public void onNext(Double item) {
+			results.put(item, true);
+		}
+		
+		public void onError(Throwable throwable) {
+			error.set(throwable);
+		}
+		
+		public void onComplete() {
+			complete.set(true);
+		}
+	}
+	
+	Program                           program;
+	ProcessingTaskSet<Integer,Double> taskset;
+	
+	@BeforeEach
+	public void beforeEach() {
+		program = testProgram();
+		program.pool().workers(4);
+		taskset = new ProcessingTaskSet<Integer,Double>("processor")
+			.pool(program.pool())
+			.lambda((n)->2.0 * n);
+	}
+	
+	@AfterEach
+	public void afterEach() throws TimeoutException, InterruptedException {
+		finishProgram(program);
+	}
+	
+	@Test
+	public void testProcessesEveryUpstreamItem() throws InterruptedException, TimeoutException {
+		CollectingSubscriber                       subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+		ProcessingTaskSetProcessor<Integer,Double> processor  = taskset.processor(8);
+		
+		try(SubmissionPublisher<Integer> publisher = new SubmissionPublisher<>()) {
+			publisher.subscribe(processor);
+			processor.subscribe(subscriber);
+			
+			for(int i = 0; i < 100; i++) {
+				publisher.submit(i);
+			}
+		}
+		
+		waitFor(()->subscriber.complete.get());
+		taskset.await(1000);
+		assertEquals(100, subscriber.results.size());
+		for(int i = 0; i < 100; i++) {
+			assertTrue(subscriber.results.containsKey(2.0 * i));
+		}
+	}
+	
+	@Test
+	public void testRequestsNoMoreThanWindowAheadOfDemand() {
+		RangePublisher       upstream   = new RangePublisher(1000);
+		CollectingSubscriber subscriber = new CollectingSubscriber(0);
+		ProcessingTaskSetProcessor<Integer,Double> processor = taskset.processor(10);
+		
+		processor.subscribe(subscriber);
+		upstream .subscribe(processor);
+		
+		holdFor(20, ()->upstream.requested.get() == 10);
+		
+		subscriber.subscription.request(25);
+		waitFor(()->subscriber.results.size() == 25);
+		holdFor(20, ()->upstream.requested.get() <= 35);
+		
+		subscriber.subscription.request(Long.MAX_VALUE);
+		waitFor(()->subscriber.complete.get());
+		assertEquals(1000, subscriber.results.size());
+	}
+	
+	@Test
+	public void testCancelStopsTaskSet() {
+		RangePublisher       upstream   = new RangePublisher(Integer.MAX_VALUE);
+		CollectingSubscriber subscriber = new CollectingSubscriber(5);
+		ProcessingTaskSetProcessor<Integer,Double> processor = taskset.processor(4);
+		
+		processor.subscribe(subscriber);
+		upstream .subscribe(processor);
+		
+		waitFor(()->subscriber.results.size() == 5);
+		subscriber.subscription.cancel();
+		waitFor(()->taskset.isFinished());
+		assertTrue(taskset.isStopped());
+	}
+	
+	@Test
+	public void testLambdaExceptionIsPublishedAsError() {
+		RuntimeException     exception  = new RuntimeException();
+		CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+		AtomicInteger        handled    = new AtomicInteger();
+		
+		taskset
+			.onException((exc)->handled.incrementAndGet())
+			.lambda((n)->{ throw exception; });
+		
+		ProcessingTaskSetProcessor<Integer,Double> processor = taskset.processor(4);
+		processor.subscribe(subscriber);
+		new RangePublisher(10).subscribe(processor);
+		
+		waitFor(()->subscriber.error.get() != null);
+		assertEquals(exception, subscriber.error.get());
+		assertTrue(handled.get() > 0);
+	}
+}
@@ -5,17 +5,28 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import com.acrescrypto.shepherd.core.Program;
+import com.acrescrypto.shepherd.exceptions.TaskFinishedException;
+import com.acrescrypto.shepherd.worker.Worker;
 import static com.acrescrypto.shepherd.TestTools.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class ProcessingTaskSetTest {
 	Program                          program;
@@ -288,4 +299,1145 @@ public class ProcessingTaskSetTest {
 			.await(1000);
 		assertEquals(3 + taskset.arguments().size(), count.get());
 	}
+	
+	@Test
+	public void testChunksReportEveryArgumentAndResult() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<Integer,Double> seen = new ConcurrentHashMap<>();
+		AtomicInteger listSize = new AtomicInteger();
+		
+		for(int i = 0; i < 100; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.chunks(7)
+			.lambda((n)->3.5 * n)
+			.each((x, y)->seen.put(x, y))
+			.list((list)->listSize.set(list.size()))
+			.run()
+			.await(1000);
+		
+		assertEquals(100, seen.size());
+		assertEquals(100, listSize.get());
+		for(int i = 0; i < 100; i++) {
+			assertEquals(3.5*i, seen.get(i));
+		}
+	}
+	
+	@Test
+	public void testChunksRunArgumentsInsideChunkTasks() throws InterruptedException, TimeoutException {
+		AtomicInteger unchunked = new AtomicInteger();
+		
+		for(int i = 0; i < 50; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.chunks(10)
+			.lambda((n)->{
+				if(!(Worker.active().activeTask() instanceof ProcessingChunkTask)) {
+					unchunked.incrementAndGet();
+				}
+				
+				return 0.0;
+		  }).run()
+			.await(1000);
+		
+		assertEquals(0, unchunked.get());
+	}
+	
+	@Test
+	public void testAdaptiveChunksGrowForCheapArguments() throws InterruptedException, TimeoutException {
+		for(int i = 0; i < 10000; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.adaptiveChunks(1000)
+			.lambda((n)->1.0 * n)
+			.run()
+			.await(5000);
+		
+		assertTrue(taskset.chunkSize() > 1);
+	}
+	
+	@Test
+	public void testChunksLargerThanArgumentListAreFine() throws InterruptedException, TimeoutException {
+		setupBasicTest();
+		taskset
+			.chunks(1000)
+			.list((list)->assertEquals(10, list.size()))
+			.run()
+			.await(1000);
+	}
+	
+	@Test
+	public void testStreamDeliversResultsBeforeSetFinishes() throws InterruptedException, BrokenBarrierException, TimeoutException {
+		CyclicBarrier                     barrier = new CyclicBarrier(2);
+		ConcurrentHashMap<Integer,Double> seen    = new ConcurrentHashMap<>();
+		
+		taskset.pool().workers(2);
+		taskset
+			.lambda((x)->{
+				if(x == 1) barrier.await(1000, TimeUnit.MILLISECONDS);
+				return 2.0 * x;
+		  }).stream((x, y)->seen.put(x, y))
+			.add(0)
+			.add(1)
+			.run();
+		
+		waitFor(()->seen.containsKey(0));
+		assertFalse(taskset.isFinished());
+		barrier.await(1000, TimeUnit.MILLISECONDS);
+		
+		taskset.await(1000);
+		assertEquals(2.0, seen.get(1));
+	}
+	
+	@Test
+	public void testStreamOrderedDeliversInInsertionOrder() throws InterruptedException, TimeoutException {
+		ConcurrentLinkedDeque<Integer> order = new ConcurrentLinkedDeque<>();
+		
+		taskset.pool().workers(4);
+		taskset
+			.lambda((x)->{
+				Thread.sleep((7*x) % 5);
+				return 0.0;
+		  }).streamOrdered(3, (x, y)->order.add(x));
+		
+		for(int i = 0; i < 40; i++) {
+			taskset.add(i);
+		}
+		
+		taskset.run().await(5000);
+		assertEquals(40, order.size());
+		
+		int i = 0;
+		for(int x : order) {
+			assertEquals(i++, x);
+		}
+	}
+	
+	@Test
+	public void testStreamOrderedDoesNotScheduleBeyondWindow() throws InterruptedException, TimeoutException {
+		int           window    = 3;
+		AtomicInteger delivered = new AtomicInteger();
+		AtomicInteger maxAhead  = new AtomicInteger();
+		
+		taskset.pool().workers(4);
+		taskset
+			.lambda((x)->{
+				maxAhead.accumulateAndGet(x - delivered.get(), Math::max);
+				Thread.sleep(1);
+				return 0.0;
+		  }).streamOrdered(window, (x, y)->delivered.incrementAndGet());
+		
+		for(int i = 0; i < 30; i++) {
+			taskset.add(i);
+		}
+		
+		taskset.run().await(5000);
+		assertEquals(30, delivered.get());
+		assertTrue(maxAhead.get() < window);
+	}
+	
+	@Test
+	public void testStreamReleasesDeliveredResults() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		
+		setupBasicTest();
+		assertEquals(10, taskset.arguments().size());
+		
+		taskset = new ProcessingTaskSet<Integer,Double>("streaming").pool(program.pool());
+		taskset
+			.lambda((x)->1.0)
+			.stream((x, y)->count.incrementAndGet());
+		
+		for(int i = 0; i < 10; i++) {
+			taskset.add(i);
+		}
+		
+		taskset.run().await(1000);
+		assertEquals(10, count.get());
+		assertEquals(0, taskset.arguments().size());
+	}
+	
+	@Test
+	public void testMaxInFlightLimitsQueuedAndRunningArguments() throws InterruptedException, TimeoutException {
+		AtomicInteger running     = new AtomicInteger();
+		AtomicInteger maxObserved = new AtomicInteger();
+		
+		taskset.pool().workers(4);
+		taskset
+			.maxInFlight(2)
+			.lambda((x)->{
+				maxObserved.accumulateAndGet(running.incrementAndGet(), Math::max);
+				maxObserved.accumulateAndGet(program.pool().pending().size() + running.get(), Math::max);
+				Thread.sleep(1);
+				running.decrementAndGet();
+				return 0.0;
+		  });
+		
+		for(int i = 0; i < 20; i++) {
+			taskset.add(i);
+		}
+		
+		taskset.run().await(5000);
+		assertTrue(maxObserved.get() <= 2);
+	}
+	
+	@Test
+	public void testMaxInFlightStillProcessesEveryArgument() throws InterruptedException, TimeoutException {
+		setupBasicTest();
+		taskset
+			.maxInFlight(1)
+			.list((list)->assertEquals(10, list.size()))
+			.run()
+			.await(1000);
+		
+		assertEquals(0, taskset.inFlight());
+	}
+	
+	@Test
+	public void testMaxInFlightAppliesToChunkedArguments() throws InterruptedException, TimeoutException {
+		AtomicInteger maxObserved = new AtomicInteger();
+		
+		taskset
+			.chunks(10)
+			.maxInFlight(3)
+			.lambda((x)->{
+				maxObserved.accumulateAndGet(taskset.inFlight(), Math::max);
+				return 0.0;
+		  });
+		
+		for(int i = 0; i < 30; i++) {
+			taskset.add(i);
+		}
+		
+		taskset.run().await(1000);
+		assertTrue(maxObserved.get() <= 3);
+	}
+	
+	@Test
+	public void testSourceProcessesEveryArgumentFromIterator() throws InterruptedException, TimeoutException {
+		AtomicInteger sum = new AtomicInteger();
+		
+		taskset
+			.lambda((x)->1.0 * x)
+			.stream((x, y)->sum.addAndGet(x))
+			.source(IntStream.range(0, 1000).iterator())
+			.run()
+			.await(5000);
+		
+		assertEquals(999*1000/2, sum.get());
+	}
+	
+	@Test
+	public void testSourceIsPulledLazily() throws InterruptedException, TimeoutException {
+		AtomicInteger pulled    = new AtomicInteger();
+		AtomicInteger processed = new AtomicInteger();
+		AtomicInteger maxAhead  = new AtomicInteger();
+		int           window    = 5;
+		
+		Iterator<Integer> source = new Iterator<Integer>() {
+			public boolean hasNext() { return pulled.get() < 200; }
+			public Integer next() {
+				maxAhead.accumulateAndGet(pulled.incrementAndGet() - processed.get(), Math::max);
+				return pulled.get();
+			}
+		};
+		
+		taskset
+			.maxInFlight(window)
+			.lambda((x)->0.0)
+			.stream((x, y)->processed.incrementAndGet())
+			.source(source)
+			.run()
+			.await(5000);
+		
+		assertEquals(200, processed.get());
+		assertTrue(maxAhead.get() <= window);
+	}
+	
+	@Test
+	public void testSourceAcceptsStreamsAndSpliterators() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		
+		taskset
+			.lambda((x)->0.0)
+			.stream((x, y)->count.incrementAndGet())
+			.source(Stream.of(1, 2, 3))
+			.source(Arrays.asList(4, 5).spliterator())
+			.add(6)
+			.run()
+			.await(1000);
+		
+		assertEquals(6, count.get());
+	}
+	
+	@Test
+	public void testClosesStreamSourceWhenExhausted() throws InterruptedException, TimeoutException {
+		AtomicBoolean closed = new AtomicBoolean();
+		
+		taskset
+			.lambda((x)->0.0)
+			.source(Stream.of(1, 2, 3).onClose(()->closed.set(true)))
+			.run()
+			.await(1000);
+		
+		assertTrue(closed.get());
+	}
+	
+	@Test
+	public void testClosesStreamSourceWhenStopped() throws InterruptedException, TimeoutException {
+		AtomicBoolean closed = new AtomicBoolean();
+		
+		taskset
+			.lambda((x)->0.0)
+			.limit(5)
+			.source(Stream.iterate(0, (n)->n + 1).onClose(()->closed.set(true)))
+			.run()
+			.await(1000);
+		
+		assertTrue(closed.get());
+	}
+	
+	@Test
+	public void testClosesStreamSourceWhenCancelled() {
+		AtomicBoolean closed = new AtomicBoolean();
+		
+		taskset
+			.lambda((x)->0.0)
+			.source(Stream.of(1, 2, 3).onClose(()->closed.set(true)))
+			.cancel();
+		
+		assertTrue(closed.get());
+	}
+	
+	@Test
+	public void testBlockingSourceDoesNotHoldUpOtherWorkers() throws InterruptedException, TimeoutException {
+		AtomicBoolean started  = new AtomicBoolean();
+		AtomicBoolean blocked  = new AtomicBoolean();
+		AtomicBoolean released = new AtomicBoolean();
+		AtomicBoolean otherRan = new AtomicBoolean();
+		AtomicInteger finished = new AtomicInteger();
+		
+		// both arguments must be able to run at once
+		taskset.pool().workers(2);
+		waitFor(()->taskset.pool().threadGroup().activeCount() >= 2);
+		
+		taskset
+			.maxInFlight(2)
+			.lambda((n)->{
+				// keep the test thread from being the one that reads the blocking element
+				waitFor(()->started.get());
+				
+				// the second argument finishes while the first one's worker is stuck reading
+				if(n == 1) waitFor(()->blocked.get());
+				return 0.0;
+			})
+			.stream((x, y)->finished.incrementAndGet())
+			.source(new Iterator<Integer>() {
+				int next;
+				
+				public boolean hasNext() {
+					if(next == 2) {
+						blocked.set(true);
+						while(!released.get()) {
+							try { Thread.sleep(1); } catch(InterruptedException exc) {}
+						}
+					}
+					
+					return next < 4;
+				}
+				
+				public Integer next() {
+					return next++;
+				}
+			}).run();
+		started.set(true);
+		
+		waitFor(()->finished.get() == 2);
+		new SimpleTaskSet("other")
+			.pool(taskset.pool())
+			.task(()->otherRan.set(true))
+			.run();
+		
+		try {
+			waitFor(()->otherRan.get());
+		} finally {
+			released.set(true);
+		}
+		
+		taskset.await(1000);
+		assertEquals(4, finished.get());
+	}
+	
+	@Test
+	public void testEmptySourceFinishesSet() throws InterruptedException, TimeoutException {
+		AtomicBoolean afterRan = new AtomicBoolean();
+		
+		taskset
+			.lambda((x)->0.0)
+			.source(Collections.<Integer>emptyIterator())
+			.after(()->afterRan.set(true))
+			.run()
+			.await(1000);
+		
+		assertTrue(afterRan.get());
+	}
+	
+	@Test
+	public void testSourceExceptionGoesToExceptionHandler() {
+		AtomicBoolean sawException = new AtomicBoolean();
+		
+		taskset
+			.onException((exc)->sawException.set(true))
+			.lambda((x)->0.0)
+			.source(new Iterator<Integer>() {
+				public boolean hasNext() { return true; }
+				public Integer next() { throw new RuntimeException(); }
+			}).run();
+		
+		waitFor(()->sawException.get());
+		assertTrue(taskset.isCancelled());
+	}
+	
+	@Test
+	public void testReduceFoldsEveryResult() throws InterruptedException, TimeoutException {
+		AtomicReference<Double> sum = new AtomicReference<>();
+		
+		taskset.pool().workers(4);
+		taskset
+			.lambda((x)->1.0 * x)
+			.reduce(0.0, (partial, result)->partial + result, (a, b)->a + b, (total)->sum.set(total))
+			.source(IntStream.range(0, 1000).iterator())
+			.run()
+			.await(5000);
+		
+		assertEquals(999.0*1000/2, sum.get());
+	}
+	
+	@Test
+	public void testReduceRunsBeforeAfterCallbacks() throws InterruptedException, TimeoutException {
+		AtomicReference<Double> max     = new AtomicReference<>();
+		AtomicBoolean           ordered = new AtomicBoolean();
+		
+		setupBasicTest();
+		taskset
+			.reduce(Double.NEGATIVE_INFINITY, Math::max, Math::max, (result)->max.set(result))
+			.after(()->ordered.set(max.get() != null))
+			.run()
+			.await(1000);
+		
+		assertEquals(3.5*9, max.get());
+		assertTrue(ordered.get());
+	}
+	
+	@Test
+	public void testReduceOfEmptySetIsIdentity() throws InterruptedException, TimeoutException {
+		AtomicReference<Double> result = new AtomicReference<>();
+		
+		taskset
+			.lambda((x)->1.0)
+			.reduce(42.0, (a, b)->a + b, (a, b)->a + b, (r)->result.set(r))
+			.run()
+			.await(1000);
+		
+		assertEquals(42.0, result.get());
+	}
+	
+	@Test
+	public void testReduceDoesNotRetainResults() throws InterruptedException, TimeoutException {
+		setupBasicTest();
+		taskset = new ProcessingTaskSet<Integer,Double>("reduce").pool(program.pool());
+		taskset
+			.lambda((x)->1.0)
+			.reduce(0.0, (a, b)->a + b, (a, b)->a + b, (r)->{})
+			.add(Arrays.asList(1, 2, 3))
+			.run()
+			.await(1000);
+		
+		assertEquals(0, taskset.arguments().size());
+	}
+	
+	@Test
+	public void testGroupByDeliversEveryKeyOnce() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<Integer,Integer> groupSizes = new ConcurrentHashMap<>();
+		AtomicInteger                      calls      = new AtomicInteger();
+		
+		taskset.pool().workers(4);
+		taskset
+			.lambda((x)->1.0 * x)
+			.groupBy(4, (arg, result)->arg % 5, (key, results)->{
+				calls.incrementAndGet();
+				groupSizes.put(key, results.size());
+		  }).source(IntStream.range(0, 100).iterator())
+			.run()
+			.await(5000);
+		
+		assertEquals(5, calls.get());
+		for(int key = 0; key < 5; key++) {
+			assertEquals(20, groupSizes.get(key));
+		}
+	}
+	
+	@Test
+	public void testGroupByFinishesBeforeAfterCallbacks() throws InterruptedException, TimeoutException {
+		AtomicInteger groups  = new AtomicInteger();
+		AtomicInteger atAfter = new AtomicInteger();
+		
+		setupBasicTest();
+		taskset
+			.groupBy(3, (arg, result)->arg, (key, results)->groups.incrementAndGet())
+			.after(()->atAfter.set(groups.get()))
+			.run()
+			.await(1000);
+		
+		assertEquals(10, atAfter.get());
+	}
+	
+	@Test
+	public void testJoinMatchesResultsByKey() throws InterruptedException, TimeoutException {
+		ProcessingTaskSet<Integer,String> other = new ProcessingTaskSet<Integer,String>("other").pool(program.pool());
+		ConcurrentHashMap<Integer,String> joined = new ConcurrentHashMap<>();
+		
+		taskset.pool().workers(4);
+		setupBasicTest();
+		other
+			.lambda((x)->"item " + x)
+			.add(Arrays.asList(2, 4, 6, 20));
+		
+		taskset
+			.join(other, 4,
+				(arg, result)->arg,
+				(arg, result)->arg,
+				(key, left, right)->joined.put(key, left + " " + right))
+			.run();
+		other.run();
+		
+		taskset.await(1000);
+		other  .await(1000);
+		
+		assertEquals(3, joined.size());
+		assertEquals("7.0 item 2",  joined.get(2));
+		assertEquals("14.0 item 4", joined.get(4));
+		assertEquals("21.0 item 6", joined.get(6));
+	}
+	
+	@Test
+	public void testJoinHoldsBothSetsUntilComplete() throws InterruptedException {
+		ProcessingTaskSet<Integer,String> other = new ProcessingTaskSet<Integer,String>("other").pool(program.pool());
+		
+		setupBasicTest();
+		other.lambda((x)->"").add(1);
+		taskset
+			.join(other, 2, (arg, result)->arg, (arg, result)->arg, (key, left, right)->{})
+			.run();
+		
+		holdFor(20, ()->!taskset.isFinished());
+		other.run();
+		waitFor(()->taskset.isFinished() && other.isFinished());
+	}
+	
+	@Test
+	public void testJoinCancelsSetWhosePartnerWasCancelled() throws InterruptedException, TimeoutException {
+		ProcessingTaskSet<Integer,String> other = new ProcessingTaskSet<Integer,String>("other").pool(program.pool());
+		
+		setupBasicTest();
+		other
+			.lambda((x)->{ throw new RuntimeException(); })
+			.onException((exc)->{})
+			.add(1);
+		taskset
+			.join(other, 2, (arg, result)->arg, (arg, result)->arg, (key, left, right)->{})
+			.run();
+		other.run();
+		
+		waitFor(()->other.isCancelled());
+		taskset.await(1000);
+		assertTrue(taskset.isCancelled());
+	}
+	
+	@Test
+	public void testSpawnedArgumentsFinishBeforeSet() throws InterruptedException, TimeoutException {
+		AtomicInteger processed = new AtomicInteger();
+		AtomicInteger atAfter   = new AtomicInteger();
+		taskset.pool().workers(4);
+		
+		// a binary tree of depth 8, discovered while it is walked
+		taskset
+			.lambda((task, n)->{
+				processed.incrementAndGet();
+				if(n < 256) {
+					task.spawn(2 * n);
+					task.spawn(2 * n + 1);
+				}
+				
+				task.finish(0.0);
+			})
+			.add(1)
+			.after(()->atAfter.set(processed.get()))
+			.run()
+			.await(5000);
+		
+		assertEquals(511, processed.get());
+		assertEquals(511, atAfter.get());
+	}
+	
+	@Test
+	public void testSpawnedArgumentsAreRetained() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		
+		taskset
+			.lambda((task, n)->{
+				if(n > 0) task.spawn(n - 1);
+				task.finish(1.0 * n);
+			})
+			.add(9)
+			.list((results)->count.set(results.size()))
+			.run()
+			.await(1000);
+		
+		assertEquals(10, count.get());
+	}
+	
+	@Test
+	public void testDistinctDropsVisitedArguments() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<Integer,Integer> visits = new ConcurrentHashMap<>();
+		taskset.pool().workers(4);
+		
+		// walk a cyclic graph where every node links to two others
+		taskset
+			.distinct()
+			.lambda((task, n)->{
+				visits.merge(n, 1, Integer::sum);
+				task.spawn((2 * n) % 101);
+				task.spawn((n + 1) % 101);
+				task.finish(0.0);
+			})
+			.add(1)
+			.add(1)
+			.run()
+			.await(5000);
+		
+		assertEquals(101, visits.size());
+		for(int count : visits.values()) {
+			assertEquals(1, count);
+		}
+		
+		assertEquals(101, taskset.visited().size());
+	}
+	
+	@Test
+	public void testSpawnAfterFinishThrows() throws InterruptedException, TimeoutException {
+		AtomicReference<ProcessingTask<Integer,Double>> finished = new AtomicReference<>();
+		
+		taskset
+			.lambda((task, n)->{
+				finished.set(task);
+				task.finish(0.0);
+			})
+			.add(1)
+			.run()
+			.await(1000);
+		
+		try {
+			finished.get().spawn(2);
+			fail("Expected exception");
+		} catch(RuntimeException exc) {
+		}
+	}
+	
+	@Test
+	public void testAnyOfInvokesCallbackWithFirstMatch() throws InterruptedException, TimeoutException {
+		AtomicInteger                 processed = new AtomicInteger();
+		ConcurrentLinkedDeque<Double> matches   = new ConcurrentLinkedDeque<>();
+		taskset.pool().workers(2);
+		
+		for(int i = 0; i < 10000; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.lambda((n)->{
+				processed.incrementAndGet();
+				return 1.0 * n;
+			})
+			.anyOf((n, result)->n >= 10 && n % 5 == 0, (n, result)->matches.add(result))
+			.run()
+			.await(5000);
+		
+		assertEquals(1, matches.size());
+		assertEquals(0, matches.peek() % 5);
+		assertTrue(processed.get() < 10000);
+	}
+	
+	@Test
+	public void testAnyOfWithoutMatchFinishesNormally() throws InterruptedException, TimeoutException {
+		AtomicBoolean matched = new AtomicBoolean();
+		
+		setupBasicTest();
+		taskset
+			.anyOf((n, result)->false, (n, result)->matched.set(true))
+			.run()
+			.await(1000);
+		
+		assertFalse(matched.get());
+		assertFalse(taskset.isStopped());
+	}
+	
+	@Test
+	public void testFirstNDeliversExactlyNResults() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		taskset.pool().workers(4);
+		
+		for(int i = 0; i < 1000; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.lambda((n)->1.0 * n)
+			.firstN(7, (results)->count.set(results.size()))
+			.run()
+			.await(5000);
+		
+		assertEquals(7, count.get());
+		assertTrue(taskset.isStopped());
+	}
+	
+	@Test
+	public void testFirstNDeliversAllResultsIfFewerThanN() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		
+		setupBasicTest();
+		taskset
+			.firstN(100, (results)->count.set(results.size()))
+			.run()
+			.await(1000);
+		
+		assertEquals(10, count.get());
+	}
+	
+	@Test
+	public void testRepeatedCompletionDoesNotUseUpLimit() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		
+		for(int i = 0; i < 5; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.lambda((task, n)->{
+				task.complete(1.0 * n);
+				task.finish  (2.0 * n);
+			})
+			.limit(3)
+			.list((results)->count.set(results.size()))
+			.run()
+			.await(1000);
+		
+		assertEquals(3, count.get());
+		for(ProcessingTask<Integer,Double> task : taskset.arguments()) {
+			if(task.isFinished()) assertEquals(1.0 * task.argument(), task.result());
+		}
+	}
+	
+	@Test
+	public void testLimitCapsRetainedResults() throws InterruptedException, TimeoutException {
+		AtomicInteger count = new AtomicInteger();
+		taskset.pool().workers(4);
+		
+		for(int i = 0; i < 1000; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.lambda((n)->1.0 * n)
+			.limit(25)
+			.list((results)->count.set(results.size()))
+			.run()
+			.await(5000);
+		
+		assertEquals(25, count.get());
+	}
+	
+	@Test
+	public void testStopPurgesQueuedTasksFromPool() throws InterruptedException, TimeoutException {
+		AtomicBoolean release = new AtomicBoolean();
+		taskset.pool().workers(1);
+		
+		for(int i = 0; i < 100; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.lambda((n)->{
+				waitFor(()->release.get());
+				return 0.0;
+			})
+			.run();
+		
+		waitFor(()->taskset.inFlight() > 1);
+		taskset.stop();
+		for(Task<?> task : program.pool().pending()) {
+			assertFalse(task.taskset() == taskset);
+		}
+		
+		release.set(true);
+		taskset.await(1000);
+	}
+	
+	@Test
+	public void testRunningTasksSeeStopAsCancellation() throws InterruptedException, TimeoutException {
+		AtomicBoolean sawCancel = new AtomicBoolean();
+		AtomicBoolean started   = new AtomicBoolean();
+		
+		taskset
+			.lambda((task, n)->{
+				started.set(true);
+				waitFor(()->task.isCancelled());
+				sawCancel.set(true);
+				task.finish(0.0);
+			})
+			.add(1)
+			.run();
+		
+		waitFor(()->started.get());
+		taskset.stop().await(1000);
+		waitFor(()->sawCancel.get());
+	}
+	
+	@Test
+	public void testCacheCoalescesConcurrentDuplicates() throws InterruptedException, TimeoutException {
+		ResultCache<Integer,Double> cache = new ResultCache<>();
+		AtomicInteger               calls = new AtomicInteger();
+		AtomicInteger               count = new AtomicInteger();
+		taskset.pool().workers(4);
+		
+		for(int i = 0; i < 20; i++) {
+			taskset.add(7);
+		}
+		
+		taskset
+			.cache(cache)
+			.lambda((n)->{
+				calls.incrementAndGet();
+				Thread.sleep(10);
+				return 2.0 * n;
+			})
+			.each((n, result)->{
+				assertEquals(14.0, result);
+				count.incrementAndGet();
+			})
+			.run()
+			.await(1000);
+		
+		assertEquals(1,  calls.get());
+		assertEquals(20, count.get());
+		assertEquals(1,  cache.misses());
+		assertEquals(19, cache.hits() + cache.coalesced());
+	}
+	
+	@Test
+	public void testCacheIsSharedAcrossSets() throws InterruptedException, TimeoutException {
+		ResultCache<Integer,Double> cache = new ResultCache<>();
+		AtomicInteger               calls = new AtomicInteger();
+		
+		setupBasicTest();
+		taskset
+			.cache(cache)
+			.lambda((n)->{
+				calls.incrementAndGet();
+				return 3.5 * n;
+			})
+			.run()
+			.await(1000);
+		
+		ProcessingTaskSet<Integer,Double> second = new ProcessingTaskSet<Integer,Double>("second")
+			.pool(program.pool())
+			.cache(cache)
+			.lambda((n)->{
+				calls.incrementAndGet();
+				return 0.0;
+			});
+		
+		for(int i = 0; i < 10; i++) {
+			second.add(i);
+		}
+		
+		second.run().await(1000);
+		assertEquals(10, calls.get());
+		assertEquals(10, cache.hits());
+		assertEquals(7.0, second.arguments().stream().filter((task)->task.argument() == 2).findFirst().get().result());
+	}
+	
+	@Test
+	public void testCacheRequeuesWaitersWhenComputationFails() throws InterruptedException, TimeoutException {
+		ResultCache<Integer,Double> cache    = new ResultCache<>();
+		AtomicBoolean               failed   = new AtomicBoolean();
+		AtomicBoolean               entered  = new AtomicBoolean();
+		AtomicBoolean               proceed  = new AtomicBoolean();
+		taskset.pool().workers(2);
+		
+		ProcessingTaskSet<Integer,Double> failing = new ProcessingTaskSet<Integer,Double>("failing")
+			.pool(program.pool())
+			.onException((exc)->{})
+			.cache(cache)
+			.lambda((n)->{
+				entered.set(true);
+				waitFor(()->proceed.get());
+				failed.set(true);
+				throw new RuntimeException();
+			})
+			.add(1)
+			.run();
+		
+		waitFor(()->entered.get());
+		taskset
+			.cache(cache)
+			.lambda((n)->4.0)
+			.add(1)
+			.run();
+		
+		waitFor(()->cache.coalesced() == 1);
+		proceed.set(true);
+		taskset.await(1000);
+		
+		assertTrue(failed.get());
+		assertTrue(failing.isCancelled());
+		assertEquals(4.0, taskset.arguments().peek().result());
+	}
+	
+	/** Complete a task from another thread after a short delay, as an asynchronous lambda
+	 * would. */
+	void completeLater(ProcessingTask<Integer,Double> task, Double result, Throwable exc) {
+		new Thread(()->{
+			try {
+				Thread.sleep(10);
+				if(exc != null) {
+					task.exception(exc);
+				} else {
+					task.finish(result);
+				}
+			} catch(TaskFinishedException | InterruptedException done) {
+			}
+		}).start();
+	}
+	
+	@Test
+	public void testCacheCoalescesDuplicatesWithAsynchronousLambda() throws InterruptedException, TimeoutException {
+		ResultCache<Integer,Double> cache = new ResultCache<>();
+		AtomicInteger               calls = new AtomicInteger();
+		
+		taskset.pool().workers(4);
+		for(int i = 0; i < 8; i++) {
+			taskset.add(1);
+		}
+		
+		taskset
+			.cache(cache)
+			.lambda((task, n)->{
+				calls.incrementAndGet();
+				completeLater(task, 2.5, null);
+			})
+			.run()
+			.await(1000);
+		
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.size());
+		for(ProcessingTask<Integer,Double> task : taskset.arguments()) {
+			assertEquals(2.5, task.result());
+		}
+	}
+	
+	@Test
+	public void testCacheClaimsDoNotAccumulateFinishListeners() throws InterruptedException, TimeoutException {
+		AtomicInteger maxListeners = new AtomicInteger();
+		
+		for(int i = 0; i < 1000; i++) {
+			taskset.add(i);
+		}
+		
+		taskset
+			.cache(new ResultCache<>())
+			.lambda((n)->{
+				maxListeners.accumulateAndGet(taskset.finishListeners.size(), Math::max);
+				return 1.0 * n;
+			})
+			.run()
+			.await(5000);
+		
+		assertTrue  (maxListeners.get() < 10, maxListeners.get() + " finish listeners");
+		assertEquals(0, taskset.openClaims.size());
+	}
+	
+	@Test
+	public void testCacheClaimSurvivesRetries() throws InterruptedException, TimeoutException {
+		ResultCache<Integer,Double> cache = new ResultCache<>();
+		AtomicInteger               calls = new AtomicInteger();
+		
+		taskset.pool().workers(4);
+		for(int i = 0; i < 4; i++) {
+			taskset.add(1);
+		}
+		
+		taskset
+			.cache(cache)
+			.retry(new RetryPolicy().maxAttempts(3).backoff(1))
+			.lambda((task, n)->{
+				if(calls.incrementAndGet() == 1) throw new RuntimeException();
+				task.finish(2.0);
+			})
+			.run()
+			.await(1000);
+		
+		assertEquals(2, calls.get());
+		assertEquals(1, cache.misses());
+		for(ProcessingTask<Integer,Double> task : taskset.arguments()) {
+			assertEquals(2.0, task.result());
+		}
+	}
+	
+	@Test
+	public void testCacheLetsWaiterRecomputeWhenAsynchronousComputationFails() throws InterruptedException, TimeoutException {
+		ResultCache<Integer,Double> cache   = new ResultCache<>();
+		AtomicInteger               calls   = new AtomicInteger();
+		AtomicBoolean               entered = new AtomicBoolean();
+		AtomicBoolean               proceed = new AtomicBoolean();
+		taskset.pool().workers(2);
+		
+		ProcessingTaskSet<Integer,Double> failing = new ProcessingTaskSet<Integer,Double>("failing")
+			.pool(program.pool())
+			.onException((exc)->{})
+			.cache(cache)
+			.lambda((task, n)->{
+				calls.incrementAndGet();
+				entered.set(true);
+				new Thread(()->{
+					waitFor(()->proceed.get());
+					task.exception(new RuntimeException());
+				}).start();
+			})
+			.add(1)
+			.run();
+		
+		waitFor(()->entered.get());
+		taskset
+			.cache(cache)
+			.lambda((task, n)->{
+				calls.incrementAndGet();
+				completeLater(task, 4.0, null);
+			})
+			.add(1)
+			.run();
+		
+		// the lambda has returned, but the claim must hold until the failure arrives
+		waitFor(()->cache.coalesced() == 1);
+		proceed.set(true);
+		taskset.await(1000);
+		
+		assertTrue  (failing.isCancelled());
+		assertEquals(2,   calls.get());
+		assertEquals(4.0, taskset.arguments().peek().result());
+	}
+	
+	@Test
+	public void testRetriesTransientFailures() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<Integer,Integer> failures = new ConcurrentHashMap<>();
+		
+		setupBasicTest();
+		taskset
+			.retry(new RetryPolicy().maxAttempts(3).backoff(1))
+			.lambda((task, n)->{
+				if(failures.merge(n, 1, Integer::sum) <= 2) throw new RuntimeException();
+				task.finish(1.0 * n);
+			})
+			.run()
+			.await(1000);
+		
+		assertFalse(taskset.isCancelled());
+		assertEquals(20, taskset.retries());
+		for(ProcessingTask<Integer,Double> task : taskset.arguments()) {
+			assertEquals(3, task.attempts());
+			assertEquals(1.0 * task.argument(), task.result());
+		}
+	}
+	
+	@Test
+	public void testCancelsWhenRetriesExhausted() {
+		AtomicInteger attempts = new AtomicInteger();
+		
+		taskset
+			.onException((exc)->{})
+			.retry(new RetryPolicy().maxAttempts(4).backoff(1))
+			.lambda((n)->{
+				attempts.incrementAndGet();
+				throw new RuntimeException();
+			})
+			.add(1)
+			.run();
+		
+		waitFor(()->taskset.isCancelled());
+		assertEquals(4, attempts.get());
+		assertEquals(3, taskset.retries());
+	}
+	
+	@Test
+	public void testDoesNotRetryUnretryableFailures() {
+		AtomicInteger attempts = new AtomicInteger();
+		
+		taskset
+			.onException((exc)->{})
+			.retry(new RetryPolicy().backoff(1).retryIf((exc)->!(exc instanceof IllegalStateException)))
+			.lambda((n)->{
+				attempts.incrementAndGet();
+				throw new IllegalStateException();
+			})
+			.add(1)
+			.run();
+		
+		waitFor(()->taskset.isCancelled());
+		assertEquals(1, attempts.get());
+		assertEquals(0, taskset.retries());
+	}
+	
+	@Test
+	public void testRetriesWaitForBackoffWithoutHoldingWorker() throws InterruptedException, TimeoutException {
+		AtomicInteger attempts = new AtomicInteger();
+		AtomicBoolean otherRan = new AtomicBoolean();
+		taskset.pool().workers(1);
+		
+		long start = System.currentTimeMillis();
+		taskset
+			.retry(new RetryPolicy().maxAttempts(2).backoff(50))
+			.lambda((n)->{
+				if(n == 2) {
+					otherRan.set(true);
+					return 0.0;
+				}
+				
+				if(attempts.incrementAndGet() == 1) throw new RuntimeException();
+				return 1.0;
+			})
+			.add(1)
+			.run();
+		
+		waitFor(()->attempts.get() == 1);
+		new ProcessingTaskSet<Integer,Double>("other")
+			.pool(program.pool())
+			.lambda((n)->{
+				otherRan.set(true);
+				return 0.0;
+			})
+			.add(2)
+			.run();
+		
+		waitFor(()->otherRan.get());
+		assertEquals(1, attempts.get());
+		
+		taskset.await(1000);
+		assertEquals(2, attempts.get());
+		assertTrue(System.currentTimeMillis() - start >= 50);
+	}
 }
@@ -0,0 +1,141 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.acrescrypto.shepherd.core.Program;
+import static com.acrescrypto.shepherd.TestTools.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class RangeTaskSetTest {
+	Program      program;
+	RangeTaskSet taskset;
+	
+	@BeforeEach
+	public void beforeEach() {
+		program = testProgram();
+		taskset = new RangeTaskSet("test range").pool(program.pool());
+	}
+	
+	@AfterEach
+	public void afterEach() throws TimeoutException, InterruptedException {
+		finishProgram(program);
+	}
+	
+	@Test
+	public void testVisitsEveryIndexExactlyOnce() throws InterruptedException, TimeoutException {
+		AtomicIntegerArray visits = new AtomicIntegerArray(10000);
+		
+		program.pool().workers(4);
+		taskset
+			.range(0, visits.length())
+			.each((i)->visits.incrementAndGet(i))
+			.run()
+			.await(1000);
+		
+		for(int i = 0; i < visits.length(); i++) {
+			assertEquals(1, visits.get(i));
+		}
+	}
+	
+	@Test
+	public void testHonorsNonzeroStart() throws InterruptedException, TimeoutException {
+		AtomicInteger sum = new AtomicInteger();
+		
+		taskset
+			.range(10, 20)
+			.each((i)->sum.addAndGet(i))
+			.run()
+			.await(1000);
+		
+		assertEquals(145, sum.get());
+	}
+	
+	@Test
+	public void testSplitsAcrossIdleWorkers() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<Thread,Boolean> threads = new ConcurrentHashMap<>();
+		
+		program.pool().workers(4);
+		waitFor(()->program.pool().threadGroup().activeCount() == 4);
+		
+		taskset
+			.range(0, 64)
+			.grain(1)
+			.body((lo, hi)->{
+				threads.put(Thread.currentThread(), true);
+				Thread.sleep(2);
+		  }).run()
+			.await(2000);
+		
+		assertTrue(threads.size() > 1);
+	}
+	
+	@Test
+	public void testSpansNeverExceedGrain() throws InterruptedException, TimeoutException {
+		AtomicInteger largest = new AtomicInteger();
+		
+		program.pool().workers(2);
+		taskset
+			.range(0, 1000)
+			.grain(16)
+			.body((lo, hi)->largest.accumulateAndGet(hi - lo, Math::max))
+			.run()
+			.await(1000);
+		
+		assertTrue(largest.get() <= 16);
+	}
+	
+	@Test
+	public void testAlignedSpansStartOnBoundaries() throws InterruptedException, TimeoutException {
+		AtomicBoolean misaligned = new AtomicBoolean();
+		
+		program.pool().workers(4);
+		taskset
+			.range(3, 1003)
+			.grain(20)
+			.align(8)
+			.body((lo, hi)->{
+				if(lo != 3 && lo % 8 != 0) misaligned.set(true);
+		  }).run()
+			.await(1000);
+		
+		assertEquals(false, misaligned.get());
+		assertEquals(24, taskset.grain());
+	}
+	
+	@Test
+	public void testEmptyRangeFinishes() throws InterruptedException, TimeoutException {
+		AtomicBoolean afterRan = new AtomicBoolean();
+		
+		taskset
+			.range(5, 5)
+			.body((lo, hi)->{})
+			.after(()->afterRan.set(true))
+			.run()
+			.await(1000);
+		
+		assertTrue(afterRan.get());
+	}
+	
+	@Test
+	public void testExceptionsGoToExceptionHandler() {
+		AtomicBoolean sawException = new AtomicBoolean();
+		
+		taskset
+			.onException((exc)->sawException.set(true))
+			.range(0, 100)
+			.body((lo, hi)->{ throw new RuntimeException(); })
+			.run();
+		
+		waitFor(()->sawException.get());
+		assertTrue(taskset.isCancelled());
+	}
+}
@@ -0,0 +1,151 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.acrescrypto.shepherd.core.Program;
+import static com.acrescrypto.shepherd.TestTools.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RecursiveTaskSetTest {
+	Program program;
+	
+	@BeforeEach
+	public void beforeEach() {
+		program = testProgram();
+		program.pool().workers(4);
+	}
+	
+	@AfterEach
+	public void afterEach() throws TimeoutException, InterruptedException {
+		finishProgram(program);
+	}
+	
+	@Test
+	public void testComputesRecursiveResult() throws InterruptedException, TimeoutException {
+		RecursiveTaskSet<Integer,Long> fib = new RecursiveTaskSet<Integer,Long>("fib")
+			.pool(program.pool())
+			.root(20)
+			.lambda((task, n)->{
+				if(n < 2) task.finish((long) n);
+				task.split(n - 1, n - 2, (a, b)->a + b);
+			});
+		
+		fib.run().await(5000);
+		assertEquals(6765L, fib.result());
+	}
+	
+	@Test
+	public void testResultCallbackReceivesRootResult() throws InterruptedException, TimeoutException {
+		AtomicReference<Integer> result = new AtomicReference<>();
+		
+		new RecursiveTaskSet<Integer,Integer>("leaf")
+			.pool(program.pool())
+			.root(7)
+			.lambda((task, n)->task.finish(n * 6))
+			.result((r)->result.set(r))
+			.run()
+			.await(1000);
+		
+		assertEquals(42, result.get());
+	}
+	
+	@Test
+	public void testCombinesResultsInArgumentOrder() throws InterruptedException, TimeoutException {
+		RecursiveTaskSet<List<Integer>,List<Integer>> sort = new RecursiveTaskSet<List<Integer>,List<Integer>>("mergesort")
+			.pool(program.pool())
+			.lambda((task, list)->{
+				if(list.size() <= 8) {
+					ArrayList<Integer> sorted = new ArrayList<>(list);
+					Collections.sort(sorted);
+					task.finish(sorted);
+				}
+				
+				int mid = list.size() / 2;
+				task.split(list.subList(0, mid), list.subList(mid, list.size()), (a, b)->{
+					ArrayList<Integer> merged = new ArrayList<>(a.size() + b.size());
+					int i = 0, j = 0;
+					while(i < a.size() || j < b.size()) {
+						if(j >= b.size() || (i < a.size() && a.get(i) <= b.get(j))) merged.add(a.get(i++));
+						else                                                          merged.add(b.get(j++));
+					}
+					
+					return merged;
+				});
+			});
+		
+		Random         random = new Random(1234);
+		List<Integer>  input  = new ArrayList<>();
+		for(int i = 0; i < 1000; i++) {
+			input.add(random.nextInt());
+		}
+		
+		sort.root(input).run().await(5000);
+		
+		List<Integer> expected = new ArrayList<>(input);
+		Collections.sort(expected);
+		assertEquals(expected, sort.result());
+	}
+	
+	@Test
+	public void testSplitsRunOnMultipleWorkers() throws InterruptedException, TimeoutException {
+		ConcurrentHashMap<Thread,Boolean> threads = new ConcurrentHashMap<>();
+		waitFor(()->program.pool().threadGroup().activeCount() == 4);
+		
+		new RecursiveTaskSet<Integer,Integer>("spread")
+			.pool(program.pool())
+			.root(6)
+			.lambda((task, depth)->{
+				threads.put(Thread.currentThread(), true);
+				if(depth == 0) {
+					Thread.sleep(1);
+					task.finish(1);
+				}
+				
+				task.split(depth - 1, depth - 1, (a, b)->a + b);
+			}).run()
+			.await(5000);
+		
+		assertTrue(threads.size() > 1);
+	}
+	
+	@Test
+	public void testEmptySplitCombinesImmediately() throws InterruptedException, TimeoutException {
+		RecursiveTaskSet<Integer,Integer> set = new RecursiveTaskSet<Integer,Integer>("empty")
+			.pool(program.pool())
+			.root(0)
+			.lambda((task, n)->task.split(Arrays.asList(), (results)->results.size()));
+		
+		set.run().await(1000);
+		assertEquals(0, set.result());
+	}
+	
+	@Test
+	public void testExceptionInCombinerGoesToExceptionHandler() {
+		AtomicBoolean sawException = new AtomicBoolean();
+		RecursiveTaskSet<Integer,Integer> set = new RecursiveTaskSet<Integer,Integer>("failing")
+			.pool(program.pool())
+			.onException((exc)->sawException.set(true))
+			.root(2)
+			.lambda((task, n)->{
+				if(n == 0) task.finish(0);
+				task.split(n - 1, n - 1, (a, b)->{ throw new RuntimeException(); });
+			});
+		
+		set.run();
+		waitFor(()->sawException.get());
+		assertTrue(set.isCancelled());
+	}
+}
@@ -0,0 +1,61 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResultCacheTest {
+	@Test
+	public void testEvictsLeastRecentlyUsedBeyondMaxEntries() {
+		ResultCache<Integer,String> cache = new ResultCache<Integer,String>().maxEntries(2);
+		cache.put(1, "one").put(2, "two");
+		
+		synchronized(cache) {
+			cache.lookup(1); // touch 1, leaving 2 as least recently used
+		}
+		
+		cache.put(3, "three");
+		assertTrue (cache.contains(1));
+		assertFalse(cache.contains(2));
+		assertTrue (cache.contains(3));
+		assertEquals(1, cache.evictions());
+	}
+	
+	@Test
+	public void testShrinkingMaxEntriesEvicts() {
+		ResultCache<Integer,String> cache = new ResultCache<>();
+		for(int i = 0; i < 10; i++) {
+			cache.put(i, "" + i);
+		}
+		
+		cache.maxEntries(4);
+		assertEquals(4, cache.size());
+		assertEquals(6, cache.evictions());
+	}
+	
+	@Test
+	public void testExpiresEntriesAfterTtl() throws InterruptedException {
+		ResultCache<Integer,String> cache = new ResultCache<Integer,String>().ttl(10);
+		cache.put(1, "one");
+		assertTrue(cache.contains(1));
+		
+		Thread.sleep(20);
+		assertFalse(cache.contains(1));
+		
+		synchronized(cache) {
+			assertEquals(null, cache.lookup(1));
+		}
+		
+		assertEquals(1, cache.evictions());
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testInvalidateRemovesEntry() {
+		ResultCache<Integer,String> cache = new ResultCache<>();
+		cache.put(1, "one").invalidate(1);
+		assertFalse(cache.contains(1));
+	}
+}
@@ -0,0 +1,66 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RetryPolicyTest {
+	@Test
+	public void testDelayGrowsExponentially() {
+		RetryPolicy policy = new RetryPolicy().backoff(10).multiplier(3);
+		assertEquals(10, policy.delayFor(1));
+		assertEquals(30, policy.delayFor(2));
+		assertEquals(90, policy.delayFor(3));
+	}
+	
+	@Test
+	public void testDelayIsCappedAtMaxBackoff() {
+		RetryPolicy policy = new RetryPolicy().backoff(10).maxBackoff(25);
+		assertEquals(20, policy.delayFor(2));
+		assertEquals(25, policy.delayFor(3));
+		assertEquals(25, policy.delayFor(10));
+	}
+	
+	@Test
+	public void testDelayWithoutMaxBackoffIsCappedAtDefault() {
+		RetryPolicy policy = new RetryPolicy().backoff(100).maxAttempts(Integer.MAX_VALUE);
+		for(int attempts = 1; attempts < 200; attempts++) {
+			long delay = policy.delayFor(attempts);
+			assertTrue(delay > 0);
+			assertTrue(delay <= RetryPolicy.MAX_BACKOFF);
+		}
+		
+		assertEquals(RetryPolicy.MAX_BACKOFF, policy.delayFor(100));
+	}
+	
+	@Test
+	public void testLaterSaturatesInsteadOfWrapping() {
+		long now = System.currentTimeMillis();
+		assertEquals(Long.MAX_VALUE, Task.later(now, Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, Task.later(now, Long.MAX_VALUE - now));
+		assertEquals(now + 1000,     Task.later(now, 1000));
+	}
+	
+	@Test
+	public void testJitterOnlyShortensDelay() {
+		RetryPolicy policy = new RetryPolicy().backoff(1000).jitter(0.5);
+		for(int i = 0; i < 100; i++) {
+			long delay = policy.delayFor(1);
+			assertTrue(delay >= 500);
+			assertTrue(delay <= 1000);
+		}
+	}
+	
+	@Test
+	public void testShouldRetryHonorsAttemptsAndPredicate() {
+		RetryPolicy policy = new RetryPolicy()
+			.maxAttempts(2)
+			.retryIf((exc)->exc instanceof IllegalStateException);
+		
+		assertTrue (policy.shouldRetry(new IllegalStateException(), 1));
+		assertFalse(policy.shouldRetry(new IllegalStateException(), 2));
+		assertFalse(policy.shouldRetry(new RuntimeException(),      1));
+	}
+}
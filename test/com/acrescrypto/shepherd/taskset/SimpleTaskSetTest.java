@@ -1,11 +1,14 @@
 package com.acrescrypto.shepherd.taskset;
 
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,7 +16,10 @@ import org.junit.jupiter.api.Test;
 
 import static com.acrescrypto.shepherd.TestTools.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
 import com.acrescrypto.shepherd.core.Program;
 
@@ -581,4 +587,354 @@ public class SimpleTaskSetTest {
 		waitFor(    ()->taskset.isFinished());
 		holdFor(20, ()->invoked.get() == false);
 	}
+	
+	@Test
+	public void testRunsNextGateOnCompletingWorker() {
+		AtomicReference<Thread> first  = new AtomicReference<>(),
+		                        second = new AtomicReference<>();
+		
+		program.pool().workers(4);
+		waitFor(()->program.pool().threadGroup().activeCount() == 4);
+		
+		taskset
+			.task(()->first .set(Thread.currentThread()))
+			.then(()->second.set(Thread.currentThread()))
+			.run();
+		
+		waitFor(()->taskset.isFinished());
+		assertEquals(first.get(), second.get());
+	}
+	
+	@Test
+	public void testCompletesChainsLongerThanInlineDepth() {
+		AtomicInteger counter = new AtomicInteger();
+		program.pool().inlineDepth(2);
+		
+		for(int i = 0; i < 10; i++) {
+			taskset.then(()->counter.incrementAndGet());
+		}
+		
+		taskset.run();
+		waitFor(()->taskset.isFinished());
+		assertEquals(10, counter.get());
+	}
+	
+	@Test
+	public void testFusedChainRunsWithoutQueueingSuccessors() {
+		AtomicInteger counter = new AtomicInteger();
+		AtomicBoolean queued  = new AtomicBoolean();
+		
+		taskset.fuse(true);
+		for(int i = 0; i < 100; i++) {
+			taskset.then(()->{
+				counter.incrementAndGet();
+				if(!program.pool().pending().isEmpty()) queued.set(true);
+			});
+		}
+		
+		taskset.run();
+		waitFor(()->taskset.isFinished());
+		assertEquals(100, counter.get());
+		assertFalse(queued.get());
+	}
+	
+	@Test
+	public void testFusedChainStopsWhenCancelled() {
+		AtomicInteger counter = new AtomicInteger();
+		
+		taskset
+			.fuse(true)
+			.then(()->counter.incrementAndGet())
+			.then(()->{
+				counter.incrementAndGet();
+				taskset.cancel();
+		  }).then(()->counter.incrementAndGet())
+			.run();
+		
+		waitFor(     ()->taskset.isFinished());
+		holdFor( 20, ()->counter.get() == 2);
+	}
+	
+	@Test
+	public void testFusedSetStillRunsParallelGatesThroughPool() {
+		AtomicInteger counter = new AtomicInteger();
+		
+		taskset
+			.fuse(true)
+			.then(()->counter.incrementAndGet())
+			.then(()->counter.incrementAndGet())
+			.task(()->counter.incrementAndGet())
+			.then(()->counter.incrementAndGet())
+			.run();
+		
+		waitFor(()->counter.get() == 4);
+	}
+	
+	@Test
+	public void testRetainsAllTasksByDefault() {
+		for(int i = 0; i < 10; i++) {
+			taskset.then(()->{});
+		}
+		
+		assertEquals(10, taskset.tasks().size());
+		assertEquals(10, taskset.taskCount());
+	}
+	
+	@Test
+	public void testRetainLastKeepsOnlyMostRecentTasks() {
+		taskset.retainLast(3);
+		for(int i = 0; i < 10; i++) {
+			taskset.then("task " + i, ()->{});
+		}
+		
+		assertEquals(3, taskset.tasks().size());
+		assertEquals("task 7", taskset.tasks().getFirst().getFirst().name());
+		assertEquals("task 9", taskset.tasks().getLast ().getFirst().name());
+		assertEquals(10, taskset.taskCount());
+	}
+	
+	@Test
+	public void testRetainNoneKeepsNoTasks() {
+		taskset.retainNone();
+		for(int i = 0; i < 10; i++) {
+			taskset.then(()->{}).task(()->{});
+		}
+		
+		assertEquals(1, taskset.tasks().size());
+		assertEquals(0, taskset.tasks().getFirst().size());
+		assertEquals(20, taskset.taskCount());
+	}
+	
+	@Test
+	public void testRetainNoneStillRunsAllTasks() {
+		AtomicInteger counter = new AtomicInteger();
+		taskset.retainNone();
+		for(int i = 0; i < 10; i++) {
+			taskset.then(()->counter.incrementAndGet());
+		}
+		
+		taskset.run();
+		waitFor(()->taskset.isFinished());
+		assertEquals(10, counter.get());
+		assertEquals(10, taskset.finishedTaskCount());
+	}
+	
+	@Test
+	public void testOnFinishFiresOnceWhenSetFinishes() {
+		AtomicInteger calls = new AtomicInteger();
+		
+		taskset
+			.task(()->{})
+			.onFinish((set)->calls.incrementAndGet())
+			.run();
+		
+		waitFor(()->calls.get() == 1);
+		taskset.finish();
+		taskset.cancel();
+		holdFor(10, ()->calls.get() == 1);
+	}
+	
+	@Test
+	public void testOnFinishFiresImmediatelyIfAlreadyFinished() {
+		AtomicBoolean called = new AtomicBoolean();
+		taskset.finish();
+		taskset.onFinish((set)->called.set(true));
+		assertTrue(called.get());
+	}
+	
+	@Test
+	public void testOnFinishFiresWhenAncestorFinishes() {
+		SimpleTaskSet grandparent = new SimpleTaskSet("grandparent").pool(program.pool());
+		SimpleTaskSet parent      = new SimpleTaskSet("parent")     .parent(grandparent);
+		AtomicBoolean called      = new AtomicBoolean();
+		
+		taskset
+			.parent(parent)
+			.onFinish((set)->called.set(true));
+		
+		assertFalse(called.get());
+		grandparent.cancel();
+		assertTrue(called.get());
+	}
+	
+	@Test
+	public void testToFutureCompletesWithSet() throws Exception {
+		CompletableFuture<SimpleTaskSet> future = taskset
+			.task(()->{})
+			.toFuture();
+		
+		taskset.run();
+		assertEquals(taskset, future.get(1000, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void testToFutureIsCancelledWithSet() {
+		CompletableFuture<SimpleTaskSet> future = taskset.toFuture();
+		taskset.cancel();
+		assertTrue(future.isCancelled());
+	}
+	
+	@Test
+	public void testCancellingFutureCancelsSet() {
+		taskset.toFuture().cancel(false);
+		assertTrue(taskset.isCancelled());
+	}
+	
+	@Test
+	public void testAwaitTimesOutAtDeadline() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		try {
+			taskset.await(20);
+			fail("Expected timeout");
+		} catch(TimeoutException exc) {
+		}
+		
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(elapsed >= 20 && elapsed < 1000);
+		assertEquals(0, taskset.finishListeners.size());
+	}
+	
+	@Test
+	public void testAwaitReturnsWhenParentFinishes() throws InterruptedException, TimeoutException {
+		SimpleTaskSet parent = new SimpleTaskSet("parent").pool(program.pool());
+		taskset.parent(parent);
+		
+		new Thread(()->{
+			try {
+				Thread.sleep(10);
+			} catch(InterruptedException exc) {
+			}
+			
+			parent.finish();
+		}).start();
+		
+		taskset.await(1000);
+	}
+	
+	@Test
+	public void testSuspendedTasksReleaseTheirWorker() {
+		CompletableFuture<Object> future   = new CompletableFuture<>();
+		AtomicInteger             started  = new AtomicInteger(),
+		                          resumed  = new AtomicInteger();
+		int                       numTasks = 100;
+		
+		for(int i = 0; i < numTasks; i++) {
+			taskset.task((task)->{
+				if(task.step() == 0) {
+					started.incrementAndGet();
+					task.step(1).suspendUntil(future);
+				}
+				
+				resumed.incrementAndGet();
+				task.finish();
+			});
+		}
+		
+		// one worker, so each task must give it up for the next to start
+		taskset.run();
+		waitFor(()->started.get() == numTasks);
+		assertEquals(0, resumed.get());
+		
+		future.complete(null);
+		waitFor(()->taskset.isFinished());
+		assertEquals(numTasks, resumed.get());
+	}
+	
+	@Test
+	public void testSuspendedTaskResumesWhenTaskSetFinishes() {
+		SimpleTaskSet           child   = new SimpleTaskSet("child").pool(program.pool());
+		AtomicReference<Object> resumed = new AtomicReference<>();
+		
+		taskset.task((task)->{
+			if(task.step() == 0) {
+				child.task(()->{});
+				task.step(1).suspendUntil(child.run());
+			}
+			
+			resumed.set(task.resumed());
+			task.finish();
+		}).run();
+		
+		waitFor(()->taskset.isFinished());
+		assertEquals(child, resumed.get());
+	}
+	
+	@Test
+	public void testSuspendedTaskResumesWithSignalArgument() {
+		AtomicReference<Object> resumed = new AtomicReference<>();
+		
+		taskset.task((task)->{
+			if(task.step() == 0) task.step(1).suspendUntilSignal("wake");
+			resumed.set(task.resumed());
+			task.finish();
+		}).run();
+		
+		waitFor(()->program.hub().handlersForSignal("wake").size() == 1);
+		program.hub().signal("wake", "argument");
+		waitFor(()->taskset.isFinished());
+		assertEquals("argument", resumed.get());
+		
+		waitFor(()->program.hub().handlersForSignal("wake").isEmpty());
+	}
+	
+	@Test
+	public void testSuspendedTaskDoesNotRunAfterTaskSetCancelled() {
+		CompletableFuture<Object> future  = new CompletableFuture<>();
+		AtomicBoolean             resumed = new AtomicBoolean();
+		
+		taskset.task((task)->{
+			if(task.step() == 0) task.step(1).suspendUntil(future);
+			resumed.set(true);
+		}).run();
+		
+		waitFor(()->program.pool().queued() == 0);
+		taskset.cancel();
+		future.complete(null);
+		holdFor(20, ()->!resumed.get());
+		assertNull(program.globals().get("fatalException"));
+	}
+	
+	@Test
+	public void testConcurrentRunsExecuteSetOnce() throws InterruptedException {
+		AtomicInteger counter    = new AtomicInteger();
+		int           numThreads = 8;
+		CyclicBarrier barrier    = new CyclicBarrier(numThreads);
+		Thread[]      threads    = new Thread[numThreads];
+		
+		taskset.task(()->counter.incrementAndGet());
+		for(int i = 0; i < numThreads; i++) {
+			threads[i] = new Thread(()->{
+				try {
+					barrier.await();
+				} catch(InterruptedException | BrokenBarrierException exc) {
+				}
+				
+				taskset.run();
+			});
+			threads[i].start();
+		}
+		
+		for(Thread thread : threads) thread.join();
+		waitFor(()->taskset.isFinished());
+		holdFor(20, ()->counter.get() == 1);
+	}
+	
+	@Test
+	public void testInlinesHighestPriorityTaskWhenImportantTasksAreSkipped() {
+		ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+		
+		// the group's heap is [important, low, high], so iterating it past the important
+		// head reaches the low priority task first
+		taskset
+			.task(new SimpleTask(taskset, "important", (task)->{
+				task.registered();
+				task.finish();
+			}).important())
+			.task(new SimpleTask(taskset, "low",  ()->order.add("low" )).priority(1))
+			.task(new SimpleTask(taskset, "high", ()->order.add("high")).priority(2))
+			.run();
+		
+		waitFor(()->taskset.isFinished());
+		assertEquals("high", order.peek());
+	}
 }
@@ -2,7 +2,9 @@ package com.acrescrypto.shepherd.taskset;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -28,6 +30,7 @@ class SimpleTaskTest {
 	
 	class SimpleTaskSetStubber extends SimpleTaskSet {
 		boolean calledFinish, calledYield;
+		int numFinished;
 		Throwable exception;
 		
 		public SimpleTaskSetStubber() {
@@ -38,6 +41,7 @@ class SimpleTaskTest {
 		@Override
 		protected SimpleTaskSet finishedTask(SimpleTask task) {
 			calledFinish = true;
+			numFinished++;
 			return this;
 		}
 		
@@ -199,4 +203,95 @@ class SimpleTaskTest {
 				.priority(10);
 		assertTrue(lowPriority.compareTo(highPriority) > 0);
 	}
+	
+	@Test
+	void testSuspendDoesNotFinishOrRequeueTask() {
+		CompletableFuture<Object> future = new CompletableFuture<>();
+		SimpleTask task = new SimpleTask(taskset, name, (tt)->tt.suspendUntil(future)).run();
+		
+		assertTrue (task.isSuspended());
+		assertFalse(task.isFinished());
+		assertFalse(taskset.calledFinish);
+		assertNull (((WorkerPoolStubber) taskset.pool()).addedTask);
+	}
+	
+	@Test
+	void testRequeuesSuspendedTaskWhenFutureCompletes() {
+		CompletableFuture<Object> future = new CompletableFuture<>();
+		SimpleTask task = new SimpleTask(taskset, name, (tt)->tt.suspendUntil(future)).run();
+		
+		future.complete("value");
+		assertFalse (task.isSuspended());
+		assertEquals(task, ((WorkerPoolStubber) taskset.pool()).addedTask);
+	}
+	
+	@Test
+	void testRequeuesOnceUnwoundWhenFutureAlreadyComplete() {
+		CompletableFuture<Object> future = CompletableFuture.completedFuture("value");
+		AtomicBoolean requeuedEarly = new AtomicBoolean();
+		
+		SimpleTask task = new SimpleTask(taskset, name, (tt)->{
+			try {
+				tt.suspendUntil(future);
+			} finally {
+				requeuedEarly.set(((WorkerPoolStubber) taskset.pool()).addedTask != null);
+			}
+		}).run();
+		
+		assertFalse (requeuedEarly.get());
+		assertEquals(task, ((WorkerPoolStubber) taskset.pool()).addedTask);
+	}
+	
+	@Test
+	void testResumesAtStepWithFutureValue() {
+		CompletableFuture<Object> future = new CompletableFuture<>();
+		AtomicReference<Object>   value  = new AtomicReference<>();
+		
+		SimpleTask task = new SimpleTask(taskset, name, (tt)->{
+			switch(tt.step()) {
+			case 0:
+				tt.step(1).suspendUntil(future);
+				break;
+			case 1:
+				value.set(tt.resumed());
+				tt.finish();
+				break;
+			}
+		}).run();
+		
+		future.complete("value");
+		task.run();
+		assertEquals("value", value.get());
+		assertTrue  (task.isFinished());
+	}
+	
+	@Test
+	void testResumedThrowsExceptionOfFailedFuture() {
+		CompletableFuture<Object> future   = new CompletableFuture<>();
+		Exception                 expected = new Exception();
+		
+		SimpleTask task = new SimpleTask(taskset, name, (tt)->{
+			if(tt.step() == 0) tt.step(1).suspendUntil(future);
+			tt.resumed();
+		}).run();
+		
+		future.completeExceptionally(expected);
+		task.run();
+		assertEquals(expected, taskset.exception);
+	}
+	
+	@Test
+	void testThrowsIfSuspendedTwiceBeforeResuming() {
+		SimpleTask task = new SimpleTask(taskset, name, (tt)->{});
+		assertThrows(TaskFinishedException.class, ()->task.suspendUntil(new CompletableFuture<>()));
+		assertThrows(RuntimeException     .class, ()->task.suspendUntil(new CompletableFuture<>()));
+	}
+	
+	@Test
+	void testNotifiesTaskSetOnlyOnceWhenFinishCalledTwice() {
+		SimpleTask task = new SimpleTask(taskset, name, (tt)->{});
+		try { task.finish(); } catch(TaskFinishedException exc) {}
+		try { task.finish(); } catch(TaskFinishedException exc) {}
+		assertEquals(1, taskset.numFinished);
+	}
 }
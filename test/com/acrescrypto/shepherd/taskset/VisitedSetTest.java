@@ -0,0 +1,38 @@
+package com.acrescrypto.shepherd.taskset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VisitedSetTest {
+	@Test
+	public void testAddReturnsTrueOnlyForFirstVisit() {
+		VisitedSet<String> visited = new VisitedSet<>();
+		assertTrue (visited.add("a"));
+		assertFalse(visited.add("a"));
+		assertTrue (visited.add(null));
+		assertFalse(visited.add(null));
+		assertTrue (visited.contains("a"));
+		assertFalse(visited.contains("b"));
+	}
+	
+	@Test
+	public void testShardCountIsRoundedToPowerOfTwo() {
+		assertEquals(1,  new VisitedSet<>(1) .shards());
+		assertEquals(8,  new VisitedSet<>(5) .shards());
+		assertEquals(16, new VisitedSet<>(16).shards());
+	}
+	
+	@Test
+	public void testSizeCountsAcrossShards() {
+		VisitedSet<Integer> visited = new VisitedSet<>(4);
+		for(int i = 0; i < 1000; i++) {
+			visited.add(i % 250);
+		}
+		
+		assertEquals(250, visited.size());
+		assertEquals(0,   visited.clear().size());
+	}
+}
@@ -0,0 +1,167 @@
+package com.acrescrypto.shepherd.worker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.acrescrypto.shepherd.TestTools.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.acrescrypto.shepherd.core.Program;
+
+public class WorkerPoolExecutorTest {
+	WorkerPool         pool;
+	WorkerPoolExecutor executor;
+	
+	@BeforeEach
+	public void beforeEach() {
+		pool     = new WorkerPool(new Program()).workers(4).run();
+		executor = pool.executor();
+	}
+	
+	@AfterEach
+	public void afterEach() throws TimeoutException, InterruptedException {
+		executor.shutdownNow();
+		pool.shutdownAndWait(100);
+	}
+	
+	@Test
+	public void testSubmitRunsOnPoolThread() throws InterruptedException, ExecutionException, TimeoutException {
+		Future<ThreadGroup> future = executor.submit(()->Thread.currentThread().getThreadGroup());
+		assertEquals(pool.threadGroup(), future.get(1, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testSubmitReportsExceptionThroughFuture() throws InterruptedException, TimeoutException {
+		RuntimeException exception = new RuntimeException();
+		Future<?> future = executor.submit(()->{ throw exception; });
+		
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("Expected exception");
+		} catch(ExecutionException exc) {
+			assertEquals(exception, exc.getCause());
+		}
+	}
+	
+	@Test
+	public void testExecutePassesExceptionsToPool() {
+		AtomicReference<Throwable> caught    = new AtomicReference<>();
+		RuntimeException           exception = new RuntimeException();
+		
+		pool.onException((exc)->caught.set(exc));
+		executor.execute(()->{ throw exception; });
+		waitFor(()->caught.get() == exception);
+	}
+	
+	@Test
+	public void testAppliesPriorityToTasks() throws InterruptedException, ExecutionException, TimeoutException {
+		Future<Integer> future = executor
+			.priority(5)
+			.submit(()->Worker.active().activeTask().priority());
+		assertEquals(5, future.get(1, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testInvokeAllRunsEveryCallable() throws InterruptedException, ExecutionException {
+		List<Future<Integer>> futures = executor.invokeAll(Arrays.asList(()->1, ()->2, ()->3));
+		int sum = 0;
+		for(Future<Integer> future : futures) {
+			sum += future.get();
+		}
+		
+		assertEquals(6, sum);
+	}
+	
+	@Test
+	public void testScheduleWaitsForDelay() throws InterruptedException, ExecutionException, TimeoutException {
+		long start = System.currentTimeMillis();
+		ScheduledFuture<Long> future = executor.schedule(()->System.currentTimeMillis(), 30, TimeUnit.MILLISECONDS);
+		
+		assertTrue(future.getDelay(TimeUnit.MILLISECONDS) > 0);
+		assertTrue(future.get(1, TimeUnit.SECONDS) - start >= 30);
+	}
+	
+	@Test
+	public void testScheduleWithVeryLongDelayDoesNotRunEarly() {
+		AtomicBoolean      ran    = new AtomicBoolean();
+		ScheduledFuture<?> future = executor.schedule(()->ran.set(true), Long.MAX_VALUE, TimeUnit.DAYS);
+		
+		assertTrue(future.getDelay(TimeUnit.DAYS) > 365);
+		holdFor(100, ()->!ran.get());
+	}
+	
+	@Test
+	public void testScheduledTaskDoesNotSlowOtherSubmissions() {
+		AtomicInteger runs     = new AtomicInteger();
+		int           numTasks = 20000;
+		
+		executor.schedule(()->{}, 1, TimeUnit.HOURS);
+		for(int i = 0; i < numTasks; i++) {
+			executor.execute(()->runs.incrementAndGet());
+		}
+		
+		waitFor(5000, ()->runs.get() == numTasks);
+	}
+	
+	@Test
+	public void testScheduleAtFixedRateRepeatsUntilCancelled() {
+		AtomicInteger runs = new AtomicInteger();
+		ScheduledFuture<?> future = executor.scheduleAtFixedRate(()->runs.incrementAndGet(), 0, 5, TimeUnit.MILLISECONDS);
+		
+		waitFor(()->runs.get() >= 3);
+		future.cancel(false);
+		
+		int stopped = runs.get();
+		holdFor(30, ()->runs.get() <= stopped + 1);
+		assertTrue(future.isCancelled());
+	}
+	
+	@Test
+	public void testScheduleWithFixedDelayRepeats() {
+		AtomicInteger runs = new AtomicInteger();
+		executor.scheduleWithFixedDelay(()->runs.incrementAndGet(), 0, 5, TimeUnit.MILLISECONDS);
+		waitFor(()->runs.get() >= 3);
+	}
+	
+	@Test
+	public void testShutdownRejectsNewTasksAndAwaitsOutstanding() throws InterruptedException {
+		AtomicBoolean ran = new AtomicBoolean();
+		executor.schedule(()->ran.set(true), 20, TimeUnit.MILLISECONDS);
+		executor.scheduleAtFixedRate(()->{}, 0, 5, TimeUnit.MILLISECONDS);
+		executor.shutdown();
+		
+		try {
+			executor.submit(()->{});
+			fail("Expected exception");
+		} catch(RejectedExecutionException exc) {
+		}
+		
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		assertTrue(ran.get());
+		assertTrue(executor.isTerminated());
+	}
+	
+	@Test
+	public void testShutdownNowReturnsUnstartedTasks() throws InterruptedException {
+		AtomicBoolean ran = new AtomicBoolean();
+		executor.schedule(()->ran.set(true), 1, TimeUnit.HOURS);
+		
+		List<Runnable> unstarted = executor.shutdownNow();
+		assertEquals(1, unstarted.size());
+		assertTrue(executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+		assertFalse(ran.get());
+	}
+}
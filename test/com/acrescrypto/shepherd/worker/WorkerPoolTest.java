@@ -11,11 +11,13 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.acrescrypto.shepherd.core.Program;
 import com.acrescrypto.shepherd.taskset.SimpleTask;
 import com.acrescrypto.shepherd.taskset.SimpleTaskSet;
+import com.acrescrypto.shepherd.taskset.Task;
 
 public class WorkerPoolTest {
 	
@@ -143,6 +145,170 @@ public class WorkerPoolTest {
 		}
 	}
 	
+	@Test
+	public void testPurgeRemovesQueuedTasksOfTaskSet() {
+		SimpleTaskSet purged = new SimpleTaskSet("purged").pool(pool);
+		SimpleTaskSet kept   = new SimpleTaskSet("kept")  .pool(pool);
+		
+		for(int i = 0; i < 10; i++) {
+			pool.addTask(new SimpleTask(purged, "", ()->{}).notBefore(Long.MAX_VALUE));
+			pool.addTask(new SimpleTask(kept,   "", ()->{}).notBefore(Long.MAX_VALUE));
+		}
+		
+		pool.purge(purged);
+		assertEquals(10, pool.queued());
+		for(Task<?> task : pool.pending()) {
+			assertEquals(kept, task.taskset());
+		}
+	}
+	
+	@Test
+	public void testPurgeDoesNotMissTasksSetAsideByPollingWorkers() {
+		pool.workers            (4);
+		waitForStableWorkerCount(4);
+		
+		// idle workers keep taking these unready tasks off the queue and putting them back
+		for(int round = 0; round < 100; round++) {
+			SimpleTaskSet purged = new SimpleTaskSet("purged").pool(pool);
+			for(int i = 0; i < 10; i++) {
+				pool.addTask(new SimpleTask(purged, "", ()->{}).notBefore(Long.MAX_VALUE));
+			}
+			
+			pool.purge(purged);
+			holdFor(2, ()->pool.queued() == 0);
+		}
+	}
+	
+	@Test
+	public void testDelayedTaskDoesNotSlowDequeue() {
+		SimpleTaskSet taskset  = new SimpleTaskSet("test")   .pool(pool);
+		SimpleTaskSet waiting  = new SimpleTaskSet("waiting").pool(pool);
+		AtomicInteger finished = new AtomicInteger();
+		int           numTasks = 40000;
+		
+		// a delayed task that would sit at the head of a single priority queue
+		pool.addTask(new SimpleTask(waiting, "delayed", ()->{})
+			.priority(Integer.MAX_VALUE)
+			.notBefore(Long.MAX_VALUE));
+		
+		for(int i = 0; i < numTasks; i++) {
+			taskset.task(()->finished.incrementAndGet());
+		}
+		
+		taskset.run();
+		waitFor(5000, ()->finished.get() == numTasks);
+		assertEquals(1, pool.queued());
+	}
+	
+	@Test
+	public void testRunsDelayedTaskWhenDue() {
+		AtomicBoolean ran     = new AtomicBoolean();
+		SimpleTaskSet taskset = new SimpleTaskSet("test").pool(pool);
+		
+		pool.addTask(new SimpleTask(taskset, "", ()->ran.set(true))
+			.notBefore(System.currentTimeMillis() + 20));
+		
+		holdFor(10,  ()->!ran.get());
+		waitFor(100, ()-> ran.get());
+	}
+	
+	@Test
+	public void testWorkersDiscardCancelledUnreadyTasks() {
+		SimpleTaskSet cancelled = new SimpleTaskSet("cancelled").pool(pool);
+		pool.addTask(new SimpleTask(cancelled, "", ()->{}).notBefore(Long.MAX_VALUE));
+		
+		cancelled.cancel();
+		waitFor(()->pool.queued() == 0);
+	}
+	
+	@Test
+	public void testAwaitOnWorkerRunsAwaitedTasks() {
+		AtomicBoolean innerRan     = new AtomicBoolean();
+		AtomicBoolean restoredTask = new AtomicBoolean();
+		
+		pool.workers            (1);
+		waitForStableWorkerCount(1);
+		
+		new SimpleTaskSet("outer")
+			.pool(pool)
+			.task((outer)->{
+				new SimpleTaskSet("inner")
+					.pool(pool)
+					.task(()->innerRan.set(true))
+					.run()
+					.await(1000);
+				restoredTask.set(Worker.active().activeTask() == outer);
+			})
+			.run();
+		
+		waitFor(()->restoredTask.get());
+		assertTrue(innerRan.get());
+	}
+	
+	@Test
+	public void testAwaitNearDeadlineDoesNotStartOtherTasks() {
+		AtomicLong    elapsed  = new AtomicLong(-1);
+		SimpleTaskSet never    = new SimpleTaskSet("never").pool(pool);
+		
+		pool.workers            (1);
+		waitForStableWorkerCount(1);
+		never.task(()->{});
+		
+		new SimpleTaskSet("outer")
+			.pool(pool)
+			.task(()->{
+				// queued behind us, so it is ready to be helped with while we await
+				new SimpleTaskSet("slow")
+					.pool(pool)
+					.task(()->Thread.sleep(200))
+					.run();
+				
+				long start = System.currentTimeMillis();
+				try {
+					never.await(5);
+				} catch(TimeoutException exc) {
+					elapsed.set(System.currentTimeMillis() - start);
+				}
+			})
+			.run();
+		
+		waitFor(()->elapsed.get() >= 0);
+		assertTrue(elapsed.get() < 100, "await overran its timeout by " + elapsed.get() + " ms");
+	}
+	
+	@Test
+	public void testNestedAwaitsOnSingleWorkerComplete() {
+		AtomicInteger depthReached = new AtomicInteger();
+		
+		pool.workers            (1);
+		waitForStableWorkerCount(1);
+		
+		nestedAwait(depthReached, 0, 4);
+		waitFor(()->depthReached.get() == 4);
+	}
+	
+	void nestedAwait(AtomicInteger depthReached, int depth, int maxDepth) {
+		SimpleTaskSet set = new SimpleTaskSet("depth " + depth).pool(pool);
+		set.task(()->{
+			if(depth + 1 < maxDepth) {
+				nestedAwait(depthReached, depth + 1, maxDepth);
+			}
+			
+			depthReached.incrementAndGet();
+		});
+		
+		if(Worker.active() == null) {
+			set.run();
+			return;
+		}
+		
+		try {
+			set.run().await(1000);
+		} catch(Exception exc) {
+			fail(exc);
+		}
+	}
+	
 	@Test
 	public void testDoesNotCreateExtraThreadsWhenProcessingTasks() {
 		SimpleTaskSet taskset = new SimpleTaskSet("test").pool(pool);